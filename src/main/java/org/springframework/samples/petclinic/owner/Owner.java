@@ -16,6 +16,7 @@
 package org.springframework.samples.petclinic.owner;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -29,9 +30,11 @@ import javax.persistence.Table;
 import javax.validation.constraints.Digits;
 import javax.validation.constraints.NotEmpty;
 
+import org.hibernate.annotations.BatchSize;
 import org.springframework.beans.support.MutableSortDefinition;
 import org.springframework.beans.support.PropertyComparator;
 import org.springframework.core.style.ToStringCreator;
+import org.springframework.data.domain.DomainEvents;
 import org.springframework.samples.petclinic.model.Person;
 
 /**
@@ -60,6 +63,7 @@ public class Owner extends Person {
 	private String telephone;
 
 	@OneToMany(cascade = CascadeType.ALL, mappedBy = "owner")
+	@BatchSize(size = 50)
 	private Set<Pet> pets;
 
 	public String getAddress() {
@@ -142,6 +146,16 @@ public class Owner extends Person {
 		return null;
 	}
 
+	/**
+	 * The event {@link OwnerRepository#save} publishes once it has saved this owner, and
+	 * so once the owner has an id.
+	 */
+	@DomainEvents
+	Collection<OwnerSavedEvent> savedEvents() {
+		return Collections.singleton(
+				new OwnerSavedEvent(getId(), getFirstName(), getLastName(), this.city, this.telephone));
+	}
+
 	@Override
 	public String toString() {
 		return new ToStringCreator(this)
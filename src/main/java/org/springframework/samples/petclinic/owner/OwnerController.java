@@ -15,6 +15,9 @@
  */
 package org.springframework.samples.petclinic.owner;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.samples.petclinic.utility.OwnerNameIndex;
+import org.springframework.samples.petclinic.utility.OwnerSearchIndex;
 import org.springframework.samples.petclinic.visit.VisitRepository;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -24,10 +27,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.validation.Valid;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -45,9 +51,23 @@ class OwnerController {
 
 	private VisitRepository visits;
 
-	public OwnerController(OwnerRepository clinicService, VisitRepository visits) {
+	private final OwnerNameIndex nameIndex;
+
+	private final OwnerSearchIndex searchIndex;
+
+	private final int pageSize;
+
+	private final int suggestions;
+
+	public OwnerController(OwnerRepository clinicService, VisitRepository visits, OwnerNameIndex nameIndex,
+			OwnerSearchIndex searchIndex, @Value("${petclinic.owners.page-size:20}") int pageSize,
+			@Value("${petclinic.owners.suggestions:10}") int suggestions) {
 		this.owners = clinicService;
 		this.visits = visits;
+		this.nameIndex = nameIndex;
+		this.searchIndex = searchIndex;
+		this.pageSize = pageSize;
+		this.suggestions = suggestions;
 	}
 
 	@InitBinder
@@ -80,32 +100,68 @@ class OwnerController {
 	}
 
 	@GetMapping("/owners")
-	public String processFindForm(Owner owner, BindingResult result, Map<String, Object> model) {
+	public String processFindForm(Owner owner, BindingResult result,
+			@RequestParam(name = "after", required = false) OwnerCursor after,
+			@RequestParam(name = "before", required = false) OwnerCursor before, Map<String, Object> model) {
 
 		// allow parameterless GET request for /owners to return all records
 		if (owner.getLastName() == null) {
 			owner.setLastName(""); // empty string signifies broadest possible search
 		}
 
-		// find owners by last name
-		Collection<Owner> results = this.owners.findByLastName(owner.getLastName());
-		if (results.isEmpty()) {
+		// find a page of owners by last name, in memory once the index is loaded
+		OwnerPage page = this.nameIndex.isReady()
+				? this.nameIndex.findPage(owner.getLastName(), after, before, this.pageSize)
+				: this.owners.findPageByLastName(owner.getLastName(), after, before, this.pageSize);
+		boolean firstPage = after == null && before == null;
+		if (page.isEmpty() && firstPage) {
 			// no owners found
 			result.rejectValue("lastName", "notFound", "not found");
 			return "owners/findOwners";
 		}
-		else if (results.size() == 1) {
+		else if (page.getOwners().size() == 1 && firstPage && !page.hasNext()) {
 			// 1 owner found
-			owner = results.iterator().next();
+			owner = page.getOwners().get(0);
 			return "redirect:/owners/" + owner.getId();
 		}
 		else {
 			// multiple owners found
+			model.put("selections", page.getOwners());
+			model.put("page", page);
+			return "owners/ownersList";
+		}
+	}
+
+	@GetMapping("/owners/search")
+	public String processSearchForm(@RequestParam(name = "q", defaultValue = "") String query,
+			Map<String, Object> model) {
+		// rank owners by any field, or match the last name until the index is built
+		List<Owner> results = this.searchIndex.isReady() ? this.searchIndex.findOwners(query, this.pageSize)
+				: this.owners.findPageByLastName(query.trim(), null, null, this.pageSize).getOwners();
+		if (results.isEmpty()) {
+			// no owners found
+			model.put("owner", new Owner());
+			model.put("query", query);
+			model.put("notFound", true);
+			return "owners/findOwners";
+		}
+		else if (results.size() == 1) {
+			// 1 owner found
+			return "redirect:/owners/" + results.get(0).getId();
+		}
+		else {
+			// best matches first
 			model.put("selections", results);
 			return "owners/ownersList";
 		}
 	}
 
+	@GetMapping("/owners/suggest")
+	public @ResponseBody List<OwnerSuggestion> suggest(@RequestParam(name = "q", defaultValue = "") String prefix) {
+		// answered from memory only, so typing never reaches the database
+		return this.nameIndex.isReady() ? this.nameIndex.suggest(prefix, this.suggestions) : Collections.emptyList();
+	}
+
 	@GetMapping("/owners/{ownerId}/edit")
 	public String initUpdateOwnerForm(@PathVariable("ownerId") int ownerId, Model model) {
 		Owner owner = this.owners.findById(ownerId);
@@ -0,0 +1,73 @@
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Objects;
+
+/**
+ * The position of an {@link Owner} in the owners sorted by last name then id, which a
+ * page of owners starts after or ends before. It is written in URLs as the id and the
+ * last name separated by a dash, and read back by {@link #valueOf}, which Spring uses to
+ * convert request parameters.
+ */
+public final class OwnerCursor {
+
+	private final String lastName;
+
+	private final int id;
+
+	public OwnerCursor(String lastName, int id) {
+		this.lastName = Objects.requireNonNull(lastName, "lastName");
+		this.id = id;
+	}
+
+	public static OwnerCursor of(Owner owner) {
+		return new OwnerCursor(owner.getLastName(), owner.getId());
+	}
+
+	/**
+	 * Reads a cursor written by {@link #toString()}.
+	 * @throws IllegalArgumentException if the text is not a cursor
+	 */
+	public static OwnerCursor valueOf(String text) {
+		int dash = text.indexOf('-');
+		if (dash <= 0) {
+			throw new IllegalArgumentException("Not an owner cursor: " + text);
+		}
+		try {
+			return new OwnerCursor(text.substring(dash + 1), Integer.parseInt(text.substring(0, dash)));
+		}
+		catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Not an owner cursor: " + text, ex);
+		}
+	}
+
+	public String getLastName() {
+		return this.lastName;
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof OwnerCursor)) {
+			return false;
+		}
+		OwnerCursor cursor = (OwnerCursor) other;
+		return this.id == cursor.id && this.lastName.equals(cursor.lastName);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.lastName.hashCode() + this.id;
+	}
+
+	@Override
+	public String toString() {
+		return this.id + "-" + this.lastName;
+	}
+
+}
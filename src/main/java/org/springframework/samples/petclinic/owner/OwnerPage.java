@@ -0,0 +1,55 @@
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of {@link Owner}s sorted by last name then id, with the cursors to ask for the
+ * pages before and after it.
+ */
+public final class OwnerPage {
+
+	private final List<Owner> owners;
+
+	private final boolean hasPrevious;
+
+	private final boolean hasNext;
+
+	public OwnerPage(List<Owner> owners, boolean hasPrevious, boolean hasNext) {
+		this.owners = Collections.unmodifiableList(owners);
+		this.hasPrevious = hasPrevious && !owners.isEmpty();
+		this.hasNext = hasNext && !owners.isEmpty();
+	}
+
+	public List<Owner> getOwners() {
+		return this.owners;
+	}
+
+	public boolean isEmpty() {
+		return this.owners.isEmpty();
+	}
+
+	public boolean hasPrevious() {
+		return this.hasPrevious;
+	}
+
+	public boolean hasNext() {
+		return this.hasNext;
+	}
+
+	/**
+	 * The cursor to pass as {@code before} for the previous page, or null if there is
+	 * none.
+	 */
+	public OwnerCursor getPreviousCursor() {
+		return this.hasPrevious ? OwnerCursor.of(this.owners.get(0)) : null;
+	}
+
+	/**
+	 * The cursor to pass as {@code after} for the next page, or null if there is none.
+	 */
+	public OwnerCursor getNextCursor() {
+		return this.hasNext ? OwnerCursor.of(this.owners.get(this.owners.size() - 1)) : null;
+	}
+
+}
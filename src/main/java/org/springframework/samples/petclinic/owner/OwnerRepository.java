@@ -15,8 +15,16 @@
  */
 package org.springframework.samples.petclinic.owner;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.hibernate.Hibernate;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
@@ -36,15 +44,120 @@ import org.springframework.transaction.annotation.Transactional;
 public interface OwnerRepository extends Repository<Owner, Integer> {
 
 	/**
-	 * Retrieve {@link Owner}s from the data store by last name, returning all owners
-	 * whose last name <i>starts</i> with the given name.
+	 * Retrieve a page of {@link Owner}s whose last name <i>starts</i> with the given name,
+	 * sorted by last name then id, with their pets. The owners are found by seeking to the
+	 * cursor in that order, so a page costs the same however deep it is, and their pets
+	 * are fetched for the whole page in a second query.
 	 * @param lastName Value to search for
-	 * @return a Collection of matching {@link Owner}s (or an empty Collection if none
-	 * found)
+	 * @param after the cursor the page starts after, or null
+	 * @param before the cursor the page ends before, used only if {@code after} is null,
+	 * or null for the first page
+	 * @param size the most owners in the page
+	 * @return the page of {@link Owner}s
+	 * @see #fetchPets
 	 */
-	@Query("SELECT DISTINCT owner FROM Owner owner left join fetch owner.pets WHERE owner.lastName LIKE :lastName%")
 	@Transactional(readOnly = true)
-	Collection<Owner> findByLastName(@Param("lastName") String lastName);
+	default OwnerPage findPageByLastName(String lastName, OwnerCursor after, OwnerCursor before, int size) {
+		Pageable oneMore = PageRequest.of(0, size + 1);
+		List<Owner> owners;
+		boolean hasPrevious;
+		boolean hasNext;
+		if (after == null && before != null) {
+			owners = new ArrayList<>(
+					findByLastNameBefore(lastName, before.getLastName(), before.getId(), oneMore));
+			hasPrevious = owners.size() > size;
+			hasNext = true;
+			owners = owners.subList(0, Math.min(size, owners.size()));
+			Collections.reverse(owners);
+		}
+		else {
+			owners = (after == null) ? findFirstPageByLastName(lastName, oneMore)
+					: findByLastNameAfter(lastName, after.getLastName(), after.getId(), oneMore);
+			hasPrevious = after != null;
+			hasNext = owners.size() > size;
+			owners = owners.subList(0, Math.min(size, owners.size()));
+		}
+		fetchPets(owners);
+		return new OwnerPage(owners, hasPrevious, hasNext);
+	}
+
+	/**
+	 * Retrieve the {@link Owner}s with the given ids, in the order of the ids, with their
+	 * pets, as a page. Owners that no longer exist are left out.
+	 * @param ids the ids of the owners in the page
+	 * @param hasPrevious whether there are owners before the page
+	 * @param hasNext whether there are owners after the page
+	 * @return the page of {@link Owner}s
+	 */
+	@Transactional(readOnly = true)
+	default OwnerPage findPageByIds(List<Integer> ids, boolean hasPrevious, boolean hasNext) {
+		Map<Integer, Owner> found = new HashMap<>();
+		if (!ids.isEmpty()) {
+			for (Owner owner : findByIdIn(ids)) {
+				found.put(owner.getId(), owner);
+			}
+		}
+		List<Owner> owners = new ArrayList<>(ids.size());
+		for (Integer id : ids) {
+			Owner owner = found.get(id);
+			if (owner != null) {
+				owners.add(owner);
+			}
+		}
+		fetchPets(owners);
+		return new OwnerPage(owners, hasPrevious, hasNext);
+	}
+
+	/**
+	 * Initialize the pets of the given {@link Owner}s in the transaction that loaded them.
+	 * {@code Owner.pets} has a batch size, so Hibernate fills the pets of a whole page of
+	 * owners with one query on the pets' owner ids, without multiplying the owner rows.
+	 * @param owners the owners whose pets to fetch
+	 */
+	default void fetchPets(List<Owner> owners) {
+		for (Owner owner : owners) {
+			// a no-op for the owners whose pets came with an earlier batch
+			Hibernate.initialize(owner.getPetsInternal());
+		}
+	}
+
+	@Query("SELECT owner FROM Owner owner WHERE owner.lastName LIKE :lastName% ORDER BY owner.lastName, owner.id")
+	List<Owner> findFirstPageByLastName(@Param("lastName") String lastName, Pageable pageable);
+
+	@Query("SELECT owner FROM Owner owner WHERE owner.lastName LIKE :lastName% AND (owner.lastName > :afterName"
+			+ " OR (owner.lastName = :afterName AND owner.id > :afterId)) ORDER BY owner.lastName, owner.id")
+	List<Owner> findByLastNameAfter(@Param("lastName") String lastName, @Param("afterName") String afterName,
+			@Param("afterId") int afterId, Pageable pageable);
+
+	/**
+	 * Seeks backwards from the cursor, so the owners come in descending order.
+	 */
+	@Query("SELECT owner FROM Owner owner WHERE owner.lastName LIKE :lastName% AND (owner.lastName < :beforeName"
+			+ " OR (owner.lastName = :beforeName AND owner.id < :beforeId))"
+			+ " ORDER BY owner.lastName DESC, owner.id DESC")
+	List<Owner> findByLastNameBefore(@Param("lastName") String lastName, @Param("beforeName") String beforeName,
+			@Param("beforeId") int beforeId, Pageable pageable);
+
+	@Query("SELECT owner FROM Owner owner WHERE owner.id IN :ids")
+	List<Owner> findByIdIn(@Param("ids") Collection<Integer> ids);
+
+	/**
+	 * Retrieve the id and last name of every {@link Owner}, in no particular order.
+	 * @return pairs of an {@code Integer} id and a {@code String} last name
+	 */
+	@Query("SELECT owner.id, owner.lastName FROM Owner owner")
+	@Transactional(readOnly = true)
+	List<Object[]> findAllIdsAndLastNames();
+
+	/**
+	 * Retrieve the id and the searched fields of every {@link Owner}, in no particular
+	 * order.
+	 * @return arrays of an {@code Integer} id and the first name, last name, city and
+	 * telephone
+	 */
+	@Query("SELECT owner.id, owner.firstName, owner.lastName, owner.city, owner.telephone FROM Owner owner")
+	@Transactional(readOnly = true)
+	List<Object[]> findAllSearchFields();
 
 	/**
 	 * Retrieve an {@link Owner} from the data store by id.
@@ -56,7 +169,8 @@ public interface OwnerRepository extends Repository<Owner, Integer> {
 	Owner findById(@Param("id") Integer id);
 
 	/**
-	 * Save an {@link Owner} to the data store, either inserting or updating it.
+	 * Save an {@link Owner} to the data store, either inserting or updating it, and
+	 * publish an {@link OwnerSavedEvent}.
 	 * @param owner the {@link Owner} to save
 	 */
 	void save(Owner owner);
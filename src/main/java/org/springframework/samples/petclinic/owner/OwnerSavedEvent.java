@@ -0,0 +1,52 @@
+package org.springframework.samples.petclinic.owner;
+
+/**
+ * Published by {@link OwnerRepository#save} for every {@link Owner} it saves, with the
+ * owner's id and the fields it is searched by, as they were saved.
+ */
+public final class OwnerSavedEvent {
+
+	private final int ownerId;
+
+	private final String firstName;
+
+	private final String lastName;
+
+	private final String city;
+
+	private final String telephone;
+
+	public OwnerSavedEvent(int ownerId, String firstName, String lastName, String city, String telephone) {
+		this.ownerId = ownerId;
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.city = city;
+		this.telephone = telephone;
+	}
+
+	public int getOwnerId() {
+		return this.ownerId;
+	}
+
+	public String getFirstName() {
+		return this.firstName;
+	}
+
+	public String getLastName() {
+		return this.lastName;
+	}
+
+	public String getCity() {
+		return this.city;
+	}
+
+	public String getTelephone() {
+		return this.telephone;
+	}
+
+	@Override
+	public String toString() {
+		return "OwnerSavedEvent[" + this.ownerId + ", " + this.lastName + "]";
+	}
+
+}
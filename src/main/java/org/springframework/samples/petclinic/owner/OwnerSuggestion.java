@@ -0,0 +1,47 @@
+package org.springframework.samples.petclinic.owner;
+
+/**
+ * An owner's id and last name, suggested while a last name is typed into the find form.
+ */
+public final class OwnerSuggestion {
+
+	private final int ownerId;
+
+	private final String lastName;
+
+	public OwnerSuggestion(int ownerId, String lastName) {
+		this.ownerId = ownerId;
+		this.lastName = lastName;
+	}
+
+	public int getOwnerId() {
+		return this.ownerId;
+	}
+
+	public String getLastName() {
+		return this.lastName;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof OwnerSuggestion)) {
+			return false;
+		}
+		OwnerSuggestion that = (OwnerSuggestion) other;
+		return this.ownerId == that.ownerId && this.lastName.equals(that.lastName);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.ownerId + this.lastName.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.ownerId + "-" + this.lastName;
+	}
+
+}
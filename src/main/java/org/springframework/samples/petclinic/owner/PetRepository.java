@@ -15,10 +15,12 @@
  */
 package org.springframework.samples.petclinic.owner;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -50,6 +52,23 @@ public interface PetRepository extends Repository<Pet, Integer> {
 	@Transactional(readOnly = true)
 	Pet findById(Integer id);
 
+	/**
+	 * Retrieve the {@link Pet}s with the given ids from the data store in one query.
+	 * @param ids the ids to search for
+	 * @return the {@link Pet}s found, in no particular order
+	 */
+	@Query("SELECT pet FROM Pet pet WHERE pet.id IN :ids")
+	@Transactional(readOnly = true)
+	List<Pet> findByIdIn(@Param("ids") Collection<Integer> ids);
+
+	/**
+	 * Retrieve the ids of all {@link Pet}s from the data store.
+	 * @return the ids of all {@link Pet}s
+	 */
+	@Query("SELECT pet.id FROM Pet pet")
+	@Transactional(readOnly = true)
+	List<Integer> findAllIds();
+
 	/**
 	 * Save a {@link Pet} to the data store, either inserting or updating it.
 	 * @param pet the {@link Pet} to save
@@ -3,6 +3,7 @@ package org.springframework.samples.petclinic.owner;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.samples.petclinic.utility.PetTimedCache;
+import org.springframework.samples.petclinic.utility.RequestIdentityMap;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -12,21 +13,25 @@ public class PetService {
 
 	private final OwnerRepository owners;
 
+	private final RequestIdentityMap identityMap;
+
 	private final Logger log;
 
 	@Autowired
 	public PetService(
 		PetTimedCache pets,
 		OwnerRepository owners,
+		RequestIdentityMap identityMap,
 		Logger criticalLogger) {
 		this.pets = pets;
 		this.owners = owners;
+		this.identityMap = identityMap;
 		this.log = criticalLogger;
 	}
 
 	public Owner findOwner(int ownerId) {
 		log.info("find owner {}", ownerId);
-		return this.owners.findById(ownerId);
+		return this.identityMap.find(Owner.class, ownerId, this.owners::findById);
 	}
 
 	public Pet newPet(Owner owner) {
@@ -38,13 +43,14 @@ public class PetService {
 
 	public Pet findPet(int petId) {
 		log.info("find pet by id {}", petId);
-		return this.pets.get(petId);
+		return this.identityMap.find(Pet.class, petId, this.pets::get);
 	}
 
 	public void savePet(Pet pet, Owner owner) {
 		log.info("save pet {}", pet.getId());
 		owner.addPet(pet);
 		this.pets.save(pet);
+		this.identityMap.register(Pet.class, pet);
 	}
 
 }
@@ -19,6 +19,7 @@ import java.util.Map;
 
 import javax.validation.Valid;
 
+import org.springframework.samples.petclinic.utility.RequestIdentityMap;
 import org.springframework.samples.petclinic.visit.Visit;
 import org.springframework.samples.petclinic.visit.VisitRepository;
 import org.springframework.stereotype.Controller;
@@ -44,9 +45,12 @@ class VisitController {
 
 	private final PetRepository pets;
 
-	public VisitController(VisitRepository visits, PetRepository pets) {
+	private final RequestIdentityMap identityMap;
+
+	public VisitController(VisitRepository visits, PetRepository pets, RequestIdentityMap identityMap) {
 		this.visits = visits;
 		this.pets = pets;
+		this.identityMap = identityMap;
 	}
 
 	@InitBinder
@@ -63,8 +67,8 @@ class VisitController {
 	 */
 	@ModelAttribute("visit")
 	public Visit loadPetWithVisit(@PathVariable("petId") int petId, Map<String, Object> model) {
-		Pet pet = this.pets.findById(petId);
-		pet.setVisitsInternal(this.visits.findByPetId(petId));
+		Pet pet = this.identityMap.find(Pet.class, petId, this.pets::findById);
+		pet.setVisitsInternal(this.identityMap.merge(Visit.class, this.visits.findByPetId(petId)));
 		model.put("pet", pet);
 		Visit visit = new Visit();
 		pet.addVisit(visit);
@@ -85,6 +89,7 @@ class VisitController {
 		}
 		else {
 			this.visits.save(visit);
+			this.identityMap.register(Visit.class, visit);
 			return "redirect:/owners/{ownerId}";
 		}
 	}
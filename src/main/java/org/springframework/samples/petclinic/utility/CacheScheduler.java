@@ -0,0 +1,135 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads shared by every {@link TimedCache}: one maintenance thread that
+ * periodically removes expired entries from all registered caches, and a small bounded
+ * pool that runs refresh-ahead reloads.
+ * <p>
+ * The threads only exist between {@link #start()} and {@link #stop()}, which Spring calls
+ * when the application context starts and closes. A cache that is used while the
+ * scheduler is stopped still works; expired entries are then removed as new ones are
+ * written and refresh-ahead is skipped.
+ */
+@Component
+public class CacheScheduler implements SmartLifecycle {
+
+	private static final int REFRESH_QUEUE_CAPACITY = 1000;
+
+	private final List<TimedCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+	private final long maintenanceIntervalInMillis;
+
+	private final int refreshThreads;
+
+	private final Executor refreshExecutor = this::refresh;
+
+	private volatile ScheduledThreadPoolExecutor maintenance;
+
+	private volatile ThreadPoolExecutor refreshes;
+
+	public CacheScheduler() {
+		this(1000, 2);
+	}
+
+	@Autowired
+	public CacheScheduler(@Value("${petclinic.cache.maintenance-interval-in-millis:1000}") long maintenanceIntervalInMillis,
+			@Value("${petclinic.cache.refresh-threads:2}") int refreshThreads) {
+		this.maintenanceIntervalInMillis = maintenanceIntervalInMillis;
+		this.refreshThreads = refreshThreads;
+	}
+
+	/**
+	 * Adds the cache to the periodic expiry sweep.
+	 */
+	void register(TimedCache<?, ?> cache) {
+		caches.add(cache);
+	}
+
+	/**
+	 * Returns the executor for background reloads. It rejects work while the scheduler
+	 * is stopped or its queue is full.
+	 */
+	Executor refreshExecutor() {
+		return refreshExecutor;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (isRunning()) {
+			return;
+		}
+		ScheduledThreadPoolExecutor maintenance = new ScheduledThreadPoolExecutor(1,
+				daemonThreads("timed-cache-maintenance-"));
+		maintenance.scheduleWithFixedDelay(this::cleanUp, maintenanceIntervalInMillis, maintenanceIntervalInMillis,
+				TimeUnit.MILLISECONDS);
+		this.refreshes = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(REFRESH_QUEUE_CAPACITY), daemonThreads("timed-cache-refresh-"));
+		this.maintenance = maintenance;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (maintenance != null) {
+			maintenance.shutdownNow();
+			maintenance = null;
+		}
+		if (refreshes != null) {
+			refreshes.shutdownNow();
+			refreshes = null;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return maintenance != null;
+	}
+
+	/**
+	 * Starts before, and stops after, the web server so that caches are maintained for
+	 * as long as requests are served.
+	 */
+	@Override
+	public int getPhase() {
+		return 0;
+	}
+
+	private void cleanUp() {
+		for (TimedCache<?, ?> cache : caches) {
+			cache.cleanUp();
+		}
+	}
+
+	private void refresh(Runnable reload) {
+		ThreadPoolExecutor refreshes = this.refreshes;
+		if (refreshes == null) {
+			throw new RejectedExecutionException("cache scheduler is not running");
+		}
+		refreshes.execute(reload);
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+}
@@ -0,0 +1,648 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded, expiring storage engine behind {@link TimedCache}.
+ * <p>
+ * Entries live in a concurrent {@link Index} so reads never block; each key maps to a
+ * single entry that holds the value together with its expiry time. Each entry is also
+ * linked into two intrusive queues that are only touched under the eviction lock: an
+ * access-order queue that supplies size victims, and a write-order queue that drives
+ * expiry. Every entry has the same time-to-live, so the write-order queue is also
+ * ordered by expiration time and expiring entries only ever looks at its head; the cost
+ * is O(expired), not O(size).
+ * <p>
+ * When the store grows past its maximum weight, the least recently used entry and the
+ * entry that was just added are compared with a {@link FrequencySketch} and the one
+ * requested less often is dropped (TinyLFU admission). One-off lookups, such as a
+ * crawler walking every id, therefore cannot flush the popular entries out.
+ * <p>
+ * Every entry carries a version stamp from a store-wide clock. Writes of freshly saved
+ * values, and invalidations, take a new version and are always admitted, while values
+ * produced by a load are only stored if the key was not written after the load began.
+ * The version of the last write is also kept per key, in a fixed table of stamps indexed
+ * by the key's hash, so this holds even when the written entry was evicted or expired
+ * while the load ran. Keys that share a stamp can only cause a load to be returned
+ * without being cached. A slow load can therefore never replace the value of a save
+ * that finished while it was running.
+ * <p>
+ * Entries evicted to stay within the maximum weight can be handed to a listener, for
+ * example to demote them to a second tier. Expired entries, and new entries rejected by
+ * admission, are not.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of cached values
+ */
+final class CacheStore<K, V> {
+
+	private static final int WRITE_STAMPS = 4096;
+
+	private final Index<K, V> data;
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final FrequencySketch sketch;
+
+	private final long maximumWeight;
+
+	private final ToIntFunction<? super V> weigher;
+
+	private final long expiryInNanos;
+
+	private final LongSupplier ticker;
+
+	private final Consumer<? super Node<K, V>> sizeEvictionListener;
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final LongAdder expiredEvictions = new LongAdder();
+
+	private final LongAdder sizeEvictions = new LongAdder();
+
+	// the fields below are guarded by evictionLock
+
+	private final AccessOrder<K, V> accessOrder = new AccessOrder<>();
+
+	private final WriteOrder<K, V> writeOrder = new WriteOrder<>();
+
+	private long weightedSize;
+
+	private final long[] writeStamps = new long[WRITE_STAMPS];
+
+	/**
+	 * Creates a store bounded by the number of entries.
+	 */
+	CacheStore(long maximumSize, long expiryInMillis) {
+		this(maximumSize, value -> 1, expiryInMillis, System::nanoTime);
+	}
+
+	/**
+	 * Creates a store bounded by the total weight of its values.
+	 * @param maximumWeight the largest total weight kept before entries are evicted
+	 * @param weigher computes the weight of a value, must not be negative
+	 * @param expiryInMillis how long an entry lives after it was written
+	 * @param ticker a nanosecond time source
+	 */
+	CacheStore(long maximumWeight, ToIntFunction<? super V> weigher, long expiryInMillis, LongSupplier ticker) {
+		this(hashIndex(), maximumWeight, weigher, expiryInMillis, ticker, node -> {
+		});
+	}
+
+	/**
+	 * Creates a store bounded by the total weight of its values that passes the entries
+	 * it evicts for size to a listener.
+	 * @param index the map from keys to entries, usually {@link #hashIndex()}
+	 * @param sizeEvictionListener called with each entry evicted for size, while the
+	 * eviction lock is held
+	 */
+	CacheStore(Index<K, V> index, long maximumWeight, ToIntFunction<? super V> weigher, long expiryInMillis,
+			LongSupplier ticker, Consumer<? super Node<K, V>> sizeEvictionListener) {
+		if (maximumWeight <= 0 || expiryInMillis <= 0) {
+			throw new IllegalArgumentException("maximum weight and expiry must be positive");
+		}
+		this.data = index;
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+		this.expiryInNanos = TimeUnit.MILLISECONDS.toNanos(expiryInMillis);
+		this.ticker = ticker;
+		this.sizeEvictionListener = sizeEvictionListener;
+		this.sketch = new FrequencySketch(maximumWeight);
+	}
+
+	/**
+	 * Returns an index backed by a {@link ConcurrentHashMap}, for keys of any type.
+	 */
+	static <K, V> Index<K, V> hashIndex() {
+		return new HashIndex<>();
+	}
+
+	/**
+	 * Returns an index for {@code Integer} keys backed by a {@link ConcurrentIntMap},
+	 * which stores the keys unboxed and needs no map entry object besides the
+	 * {@link Node}.
+	 */
+	static <V> Index<Integer, V> intIndex() {
+		return new IntIndex<>();
+	}
+
+	/**
+	 * Returns the live value for the key, or {@code null} if it is absent or expired.
+	 */
+	V getIfPresent(K key) {
+		Node<K, V> node = getEntryIfPresent(key);
+		return (node == null) ? null : node.value;
+	}
+
+	/**
+	 * Returns the live entry for the key, or {@code null} if it is absent or expired.
+	 */
+	Node<K, V> getEntryIfPresent(K key) {
+		Node<K, V> node = data.get(key);
+		if (node == null || node.isExpired(ticker.getAsLong())) {
+			recordAccess(key, null);
+			return null;
+		}
+		recordAccess(key, node);
+		return node;
+	}
+
+	/**
+	 * Returns whether the entry will expire within the given number of nanoseconds.
+	 */
+	boolean expiresWithin(Node<K, V> node, long nanos) {
+		return node.expiresAt - ticker.getAsLong() <= nanos;
+	}
+
+	/**
+	 * Returns the current version; a loader reads it before querying its source and
+	 * passes it to {@link #putIfNewer}.
+	 */
+	long currentVersion() {
+		return clock.get();
+	}
+
+	/**
+	 * Stores a value that was just written to the source of truth. It replaces whatever
+	 * is cached under the key and is admitted even if the key is not yet popular.
+	 */
+	void put(K key, V value) {
+		int weight = weigher.applyAsInt(value);
+		evictionLock.lock();
+		try {
+			insert(key, value, weight, stampWrite(key), false);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Stores a value that was loaded from the source of truth, unless the key was written
+	 * or invalidated after {@code loadVersion} was taken, even if that entry is gone
+	 * since. The new entry may also be rejected if it is less popular than the entry it
+	 * would displace.
+	 * @param loadVersion the {@link #currentVersion()} read before the load started
+	 * @return whether the value was stored
+	 */
+	boolean putIfNewer(K key, V value, long loadVersion) {
+		int weight = weigher.applyAsInt(value);
+		evictionLock.lock();
+		try {
+			if (writtenSince(key, loadVersion)) {
+				return false;
+			}
+			return insert(key, value, weight, loadVersion, true);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Stores a batch of loaded values under a single acquisition of the eviction lock,
+	 * skipping each key written or invalidated after {@code loadVersion} was taken, as
+	 * {@link #putIfNewer} does.
+	 * @param loadVersion the {@link #currentVersion()} read before the load started
+	 */
+	void putAllIfNewer(Map<? extends K, ? extends V> values, long loadVersion) {
+		int[] weights = new int[values.size()];
+		int i = 0;
+		for (V value : values.values()) {
+			weights[i++] = weigher.applyAsInt(value);
+		}
+		evictionLock.lock();
+		try {
+			i = 0;
+			for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+				int weight = weights[i++];
+				if (!writtenSince(entry.getKey(), loadVersion)) {
+					insert(entry.getKey(), entry.getValue(), weight, loadVersion, true);
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Discards the entry for the key, if present, and keeps loads that started before
+	 * from storing a value for it.
+	 */
+	void invalidate(K key) {
+		evictionLock.lock();
+		try {
+			stampWrite(key);
+			Node<K, V> node = data.remove(key);
+			if (node != null) {
+				unlink(node);
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entries whose time-to-live has elapsed.
+	 */
+	void cleanUp() {
+		evictionLock.lock();
+		try {
+			expireEntries(ticker.getAsLong());
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the keys of up to {@code limit} live entries, most frequently requested
+	 * first according to the frequency sketch.
+	 */
+	List<K> hottestKeys(int limit) {
+		PriorityQueue<Map.Entry<K, Integer>> hottest = new PriorityQueue<>(Map.Entry.comparingByValue());
+		evictionLock.lock();
+		try {
+			long now = ticker.getAsLong();
+			for (Node<K, V> node = accessOrder.last; node != null; node = node.previousInAccessOrder) {
+				if (node.isExpired(now)) {
+					continue;
+				}
+				int frequency = sketch.frequency(node.key);
+				if (hottest.size() < limit) {
+					hottest.add(new AbstractMap.SimpleImmutableEntry<>(node.key, frequency));
+				}
+				else if (limit > 0 && frequency > hottest.peek().getValue()) {
+					hottest.poll();
+					hottest.add(new AbstractMap.SimpleImmutableEntry<>(node.key, frequency));
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+		List<K> keys = new ArrayList<>(hottest.size());
+		while (!hottest.isEmpty()) {
+			keys.add(hottest.poll().getKey());
+		}
+		Collections.reverse(keys);
+		return keys;
+	}
+
+	/**
+	 * Returns the number of entries, which may include expired entries not yet cleaned
+	 * up.
+	 */
+	long size() {
+		return data.size();
+	}
+
+	/**
+	 * Returns how many entries were removed because their time-to-live elapsed.
+	 */
+	long expiredEvictionCount() {
+		return expiredEvictions.sum();
+	}
+
+	/**
+	 * Returns how many entries were removed, or rejected on arrival, to keep the store
+	 * within its maximum weight.
+	 */
+	long sizeEvictionCount() {
+		return sizeEvictions.sum();
+	}
+
+	long weightedSize() {
+		evictionLock.lock();
+		try {
+			return weightedSize;
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a new version for a write of the key. Called with the eviction lock held.
+	 */
+	private long stampWrite(K key) {
+		long version = clock.incrementAndGet();
+		writeStamps[stampIndex(key)] = version;
+		return version;
+	}
+
+	/**
+	 * Returns whether the key, or a key sharing its stamp, was written after the version.
+	 * Called with the eviction lock held.
+	 */
+	private boolean writtenSince(K key, long version) {
+		Node<K, V> existing = data.get(key);
+		return (existing != null && existing.version > version) || writeStamps[stampIndex(key)] > version;
+	}
+
+	private static int stampIndex(Object key) {
+		int hash = key.hashCode() * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (WRITE_STAMPS - 1);
+	}
+
+	private boolean insert(K key, V value, int weight, long version, boolean admit) {
+		long now = ticker.getAsLong();
+		Node<K, V> node = new Node<>(key, value, weight, version, now + expiryInNanos);
+		Node<K, V> previous = data.put(key, node);
+		if (previous != null) {
+			unlink(previous);
+		}
+		accessOrder.linkLast(node);
+		writeOrder.linkLast(node);
+		weightedSize += weight;
+		sketch.increment(key);
+		expireEntries(now);
+		evictEntries(admit ? node : null);
+		return node.alive;
+	}
+
+	/**
+	 * Reads are recorded on a best-effort basis: if another thread holds the eviction
+	 * lock the access is simply not recorded rather than making the reader wait.
+	 */
+	private void recordAccess(K key, Node<K, V> node) {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			sketch.increment(key);
+			if (node != null && node.alive) {
+				accessOrder.moveToLast(node);
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void expireEntries(long now) {
+		Node<K, V> node;
+		while ((node = writeOrder.first) != null && node.isExpired(now)) {
+			evict(node);
+			expiredEvictions.increment();
+		}
+	}
+
+	private void evictEntries(Node<K, V> candidate) {
+		while (weightedSize > maximumWeight) {
+			Node<K, V> victim = accessOrder.first;
+			if (victim == null) {
+				return;
+			}
+			if (candidate != null && candidate.alive && victim != candidate
+					&& sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+				victim = candidate;
+			}
+			evict(victim);
+			sizeEvictions.increment();
+			if (victim == candidate) {
+				candidate = null;
+			}
+			else {
+				sizeEvictionListener.accept(victim);
+			}
+		}
+	}
+
+	private void evict(Node<K, V> node) {
+		data.remove(node.key, node);
+		unlink(node);
+	}
+
+	private void unlink(Node<K, V> node) {
+		if (node.alive) {
+			node.alive = false;
+			accessOrder.unlink(node);
+			writeOrder.unlink(node);
+			weightedSize -= node.weight;
+		}
+	}
+
+	/**
+	 * The map from keys to entries. Entries are only added and removed while the eviction
+	 * lock is held, but may be looked up at any time.
+	 */
+	interface Index<K, V> {
+
+		Node<K, V> get(K key);
+
+		Node<K, V> put(K key, Node<K, V> node);
+
+		Node<K, V> remove(K key);
+
+		boolean remove(K key, Node<K, V> node);
+
+		int size();
+
+	}
+
+	private static final class HashIndex<K, V> implements Index<K, V> {
+
+		private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+
+		@Override
+		public Node<K, V> get(K key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Node<K, V> put(K key, Node<K, V> node) {
+			return map.put(key, node);
+		}
+
+		@Override
+		public Node<K, V> remove(K key) {
+			return map.remove(key);
+		}
+
+		@Override
+		public boolean remove(K key, Node<K, V> node) {
+			return map.remove(key, node);
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+	}
+
+	private static final class IntIndex<V> implements Index<Integer, V> {
+
+		private final ConcurrentIntMap<Node<Integer, V>> map = new ConcurrentIntMap<>();
+
+		@Override
+		public Node<Integer, V> get(Integer key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Node<Integer, V> put(Integer key, Node<Integer, V> node) {
+			return map.put(key, node);
+		}
+
+		@Override
+		public Node<Integer, V> remove(Integer key) {
+			return map.remove(key);
+		}
+
+		@Override
+		public boolean remove(Integer key, Node<Integer, V> node) {
+			return map.remove(key, node);
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+	}
+
+	/**
+	 * A single cache entry: the value, its bookkeeping and its links in both queues.
+	 */
+	static final class Node<K, V> {
+
+		final K key;
+
+		final V value;
+
+		final int weight;
+
+		final long version;
+
+		final long expiresAt;
+
+		// guarded by the eviction lock
+
+		boolean alive = true;
+
+		Node<K, V> previousInAccessOrder;
+
+		Node<K, V> nextInAccessOrder;
+
+		Node<K, V> previousInWriteOrder;
+
+		Node<K, V> nextInWriteOrder;
+
+		Node(K key, V value, int weight, long version, long expiresAt) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.version = version;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+
+	}
+
+	private static final class AccessOrder<K, V> {
+
+		Node<K, V> first;
+
+		Node<K, V> last;
+
+		void linkLast(Node<K, V> node) {
+			node.previousInAccessOrder = last;
+			node.nextInAccessOrder = null;
+			if (last == null) {
+				first = node;
+			}
+			else {
+				last.nextInAccessOrder = node;
+			}
+			last = node;
+		}
+
+		void unlink(Node<K, V> node) {
+			Node<K, V> previous = node.previousInAccessOrder;
+			Node<K, V> next = node.nextInAccessOrder;
+			if (previous == null) {
+				first = next;
+			}
+			else {
+				previous.nextInAccessOrder = next;
+			}
+			if (next == null) {
+				last = previous;
+			}
+			else {
+				next.previousInAccessOrder = previous;
+			}
+			node.previousInAccessOrder = null;
+			node.nextInAccessOrder = null;
+		}
+
+		void moveToLast(Node<K, V> node) {
+			if (node != last) {
+				unlink(node);
+				linkLast(node);
+			}
+		}
+
+	}
+
+	private static final class WriteOrder<K, V> {
+
+		Node<K, V> first;
+
+		Node<K, V> last;
+
+		void linkLast(Node<K, V> node) {
+			node.previousInWriteOrder = last;
+			node.nextInWriteOrder = null;
+			if (last == null) {
+				first = node;
+			}
+			else {
+				last.nextInWriteOrder = node;
+			}
+			last = node;
+		}
+
+		void unlink(Node<K, V> node) {
+			Node<K, V> previous = node.previousInWriteOrder;
+			Node<K, V> next = node.nextInWriteOrder;
+			if (previous == null) {
+				first = next;
+			}
+			else {
+				previous.nextInWriteOrder = next;
+			}
+			if (next == null) {
+				last = previous;
+			}
+			else {
+				next.previousInWriteOrder = previous;
+			}
+			node.previousInWriteOrder = null;
+			node.nextInWriteOrder = null;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.springframework.samples.petclinic.model.BaseEntity;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe counterpart of {@link IdentityMap} that can be shared between request
+ * threads and background workers.
+ * <p>
+ * Like {@link IdentityMap}, entities are identified by their id: adding an entity whose
+ * id is already present replaces the earlier one, and {@link #contains} and
+ * {@link #remove} match by id. The entities are kept in a {@link ConcurrentHashMap}
+ * from id to entity, so writers only lock the hash bucket of the id they change and
+ * lookups never block. Iteration is weakly consistent: it never throws
+ * {@link java.util.ConcurrentModificationException}, sees every entity that was present
+ * when it started and not removed since, and may or may not see later changes. Unlike
+ * {@link IdentityMap}, there is no insertion order.
+ */
+public class ConcurrentIdentityMap<Entity extends BaseEntity> extends AbstractCollection<Entity> {
+
+	private final ConcurrentHashMap<Integer, Entity> entities;
+
+	public ConcurrentIdentityMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of entities the map should hold without resizing
+	 */
+	public ConcurrentIdentityMap(int expectedSize) {
+		this.entities = new ConcurrentHashMap<>(expectedSize);
+	}
+
+	@Override
+	public int size() {
+		return entities.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return entities.isEmpty();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		Integer id = idOf(o);
+		return id != null && entities.containsKey(id);
+	}
+
+	/**
+	 * Returns the entity with the given id, or {@code null} if there is none.
+	 */
+	public Entity get(Integer id) {
+		return entities.get(id);
+	}
+
+	/**
+	 * Adds the entity, or replaces the entity with the same id.
+	 * @return {@code false} only if this very entity was already present
+	 * @throws IllegalArgumentException if the entity has no id yet
+	 */
+	@Override
+	public boolean add(Entity entity) {
+		return entities.put(requireId(entity), entity) != entity;
+	}
+
+	/**
+	 * Adds the entity unless an entity with the same id is already present.
+	 * @return the entity already present, or {@code null} if the given one was added
+	 * @throws IllegalArgumentException if the entity has no id yet
+	 */
+	public Entity addIfAbsent(Entity entity) {
+		return entities.putIfAbsent(requireId(entity), entity);
+	}
+
+	/**
+	 * Removes the entity with the same id as the given one.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		Integer id = idOf(o);
+		return id != null && entities.remove(id) != null;
+	}
+
+	@Override
+	public Iterator<Entity> iterator() {
+		return entities.values().iterator();
+	}
+
+	@Override
+	public void clear() {
+		entities.clear();
+	}
+
+	private static Integer requireId(BaseEntity entity) {
+		Integer id = entity.getId();
+		if (id == null) {
+			throw new IllegalArgumentException("Only entities with an id can be added");
+		}
+		return id;
+	}
+
+	private static Integer idOf(Object object) {
+		return (object instanceof BaseEntity) ? ((BaseEntity) object).getId() : null;
+	}
+
+}
@@ -0,0 +1,281 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent map from primitive {@code int} keys to values that does not box its keys
+ * or allocate an entry object per mapping.
+ * <p>
+ * The map is split into a fixed number of segments, each an open-addressing hash table
+ * with linear probing held in a pair of parallel {@code int[]} and {@code Object[]}
+ * arrays. Every segment is guarded by its own {@link StampedLock}: writers take the
+ * write lock, while lookups run as optimistic reads and only take the read lock if a
+ * writer changed the segment while they were probing. Removed mappings leave a tombstone
+ * behind until the segment is next rehashed.
+ * <p>
+ * Null values are not supported.
+ *
+ * @param <V> the type of mapped values
+ */
+final class ConcurrentIntMap<V> {
+
+	private static final int SEGMENT_BITS = 4;
+
+	private static final int SEGMENT_SHIFT = Integer.SIZE - SEGMENT_BITS;
+
+	private static final int MINIMUM_CAPACITY = 8;
+
+	private static final Object TOMBSTONE = new Object();
+
+	private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+	ConcurrentIntMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of mappings the map should hold without rehashing
+	 */
+	ConcurrentIntMap(int expectedSize) {
+		int capacity = tableSizeFor(expectedSize / segments.length + 1);
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(capacity);
+		}
+	}
+
+	/**
+	 * Returns the value mapped to the key, or {@code null} if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		long stamp = segment.lock.tryOptimisticRead();
+		Object value = segment.find(key, hash);
+		if (!segment.lock.validate(stamp)) {
+			stamp = segment.lock.readLock();
+			try {
+				value = segment.find(key, hash);
+			}
+			finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return (V) value;
+	}
+
+	/**
+	 * Maps the key to the value.
+	 * @return the value previously mapped to the key, or {@code null}
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		long stamp = segment.lock.writeLock();
+		try {
+			return (V) segment.put(key, hash, value);
+		}
+		finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the mapping for the key.
+	 * @return the value that was mapped to the key, or {@code null}
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(int key) {
+		return (V) removeMapping(key, null);
+	}
+
+	/**
+	 * Removes the mapping for the key only if it is mapped to the given value.
+	 * @return whether the mapping was removed
+	 */
+	boolean remove(int key, V value) {
+		return value != null && removeMapping(key, value) != null;
+	}
+
+	/**
+	 * Returns the number of mappings.
+	 */
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	private Object removeMapping(int key, Object expected) {
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		long stamp = segment.lock.writeLock();
+		try {
+			return segment.remove(key, hash, expected);
+		}
+		finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[hash >>> SEGMENT_SHIFT];
+	}
+
+	/**
+	 * Spreads the key with a Fibonacci multiplier, as sequential ids would otherwise all
+	 * land in the same segment and in long runs of neighbouring slots.
+	 */
+	private static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int tableSizeFor(int size) {
+		int capacity = MINIMUM_CAPACITY;
+		while (capacity < size * 4 / 3 + 1) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * One hash table. The arrays are only replaced together, by swapping the
+	 * {@link Table} reference, so a reader always sees a matching pair.
+	 */
+	private static final class Segment {
+
+		final StampedLock lock = new StampedLock();
+
+		Table table;
+
+		volatile int size;
+
+		// guarded by the write lock
+
+		int tombstones;
+
+		Segment(int capacity) {
+			this.table = new Table(capacity);
+		}
+
+		/**
+		 * Probes for the key. May be called without the lock, in which case the result is
+		 * only meaningful if the caller's stamp is still valid afterwards; the probe is
+		 * bounded by the table length so that it ends even if writers interfere.
+		 */
+		Object find(int key, int hash) {
+			Table table = this.table;
+			int mask = table.keys.length - 1;
+			for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				Object value = table.values[i];
+				if (value == null) {
+					return null;
+				}
+				if (value != TOMBSTONE && table.keys[i] == key) {
+					return value;
+				}
+			}
+			return null;
+		}
+
+		Object put(int key, int hash, Object value) {
+			Table table = this.table;
+			int mask = table.keys.length - 1;
+			int free = -1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				Object current = table.values[i];
+				if (current == null) {
+					if (free < 0) {
+						free = i;
+					}
+					break;
+				}
+				if (current == TOMBSTONE) {
+					if (free < 0) {
+						free = i;
+					}
+				}
+				else if (table.keys[i] == key) {
+					table.values[i] = value;
+					return current;
+				}
+			}
+			if (table.values[free] == TOMBSTONE) {
+				tombstones--;
+			}
+			table.keys[free] = key;
+			table.values[free] = value;
+			size++;
+			if ((size + tombstones) * 4 > table.keys.length * 3) {
+				rehash();
+			}
+			return null;
+		}
+
+		Object remove(int key, int hash, Object expected) {
+			Table table = this.table;
+			int mask = table.keys.length - 1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				Object current = table.values[i];
+				if (current == null) {
+					return null;
+				}
+				if (current != TOMBSTONE && table.keys[i] == key) {
+					if (expected != null && current != expected) {
+						return null;
+					}
+					table.values[i] = TOMBSTONE;
+					tombstones++;
+					size--;
+					return current;
+				}
+			}
+		}
+
+		/**
+		 * Copies the live mappings into a new table, doubling it if it is more than half
+		 * full and otherwise only clearing out the tombstones.
+		 */
+		private void rehash() {
+			Table old = this.table;
+			int capacity = (size * 2 > old.keys.length) ? old.keys.length * 2 : old.keys.length;
+			Table table = new Table(capacity);
+			int mask = capacity - 1;
+			for (int j = 0; j < old.keys.length; j++) {
+				Object value = old.values[j];
+				if (value != null && value != TOMBSTONE) {
+					int i = hash(old.keys[j]) & mask;
+					while (table.values[i] != null) {
+						i = (i + 1) & mask;
+					}
+					table.keys[i] = old.keys[j];
+					table.values[i] = value;
+				}
+			}
+			this.table = table;
+			this.tombstones = 0;
+		}
+
+	}
+
+	private static final class Table {
+
+		final int[] keys;
+
+		final Object[] values;
+
+		Table(int capacity) {
+			this.keys = new int[capacity];
+			this.values = new Object[capacity];
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.springframework.samples.petclinic.utility;
+
+/**
+ * A probabilistic estimate of how often a key has been requested, used by
+ * {@link CacheStore} to decide whether a new entry is worth evicting an old one for.
+ * <p>
+ * This is a count-min sketch with four 4-bit counters per key packed into a
+ * {@code long[]}. Once the number of recorded requests reaches ten times the cache
+ * capacity every counter is halved, so the estimate follows recent popularity rather
+ * than all-time popularity. The sketch is not thread-safe; callers must guard it.
+ */
+final class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L };
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	private final long[] table;
+
+	private final int tableMask;
+
+	private final int sampleSize;
+
+	private int size;
+
+	FrequencySketch(long maximumSize) {
+		int capacity = (int) Math.min(Math.max(maximumSize, 1), 1 << 30);
+		this.table = new long[Math.max(ceilingPowerOfTwo(capacity), 8)];
+		this.tableMask = table.length - 1;
+		this.sampleSize = (capacity > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : 10 * capacity;
+	}
+
+	/**
+	 * Returns the estimated number of occurrences of the key, at most 15.
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records one more occurrence of the key, periodically ageing all counters.
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && (++size == sampleSize)) {
+			reset();
+		}
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	private void reset() {
+		int oddCounters = 0;
+		for (int i = 0; i < table.length; i++) {
+			oddCounters += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size >>> 1) - (oddCounters >>> 2);
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += (h >>> 32);
+		return ((int) h) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << -Integer.numberOfLeadingZeros(x - 1);
+	}
+
+}
@@ -1,74 +1,196 @@
 package org.springframework.samples.petclinic.utility;
 import org.springframework.samples.petclinic.model.BaseEntity;
 
+import java.lang.reflect.Array;
 import java.util.*;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
 import java.util.stream.Collector;
 
 /**
  * This is a utility class to provide a sortable map
  * for more information see https://docs.oracle.com/javase/8/docs/api/java/util/Collection.html
+ * <p>
+ * Entities are identified by their id: adding an entity whose id is already present
+ * replaces the earlier one in place, and {@link #contains} and {@link #remove} match by
+ * id. Iteration follows insertion order.
+ * <p>
+ * The entities are kept in an array in insertion order, next to an index from id to
+ * array slot, so adding, replacing, removing, looking up and checking for an entity all
+ * take constant time. The index is an {@link IntIntMap} of primitive ints, so it costs no
+ * boxed {@code Integer} or map entry per entity. A removed entity leaves an empty slot
+ * behind; the array is compacted once more than half of its used slots are empty, which
+ * keeps removal amortized constant time. Iterators are fail-fast.
+ * <p>
+ * {@link #stream()} and {@link #parallelStream()} work on the array directly: the
+ * spliterator knows its exact size, skips empty slots and splits the array in halves, so
+ * parallel bulk operations need no intermediate copy. Reading the map never compacts it,
+ * so iterators stay valid across streams and {@link #toArray()}.
+ * {@link #toIdentityMap()} collects a stream straight into a new map.
+ * <p>
+ * Callers that need the entities in some order, such as pets by name or visits by date,
+ * can register a comparator with {@link #sortedBy} instead of calling {@link #sort}
+ * after every change. Each registered comparator keeps a balanced search tree that is
+ * updated along with the map, so a change costs O(log n) per view rather than a full
+ * re-sort.
  */
 public class IdentityMap<Entity extends BaseEntity> implements Collection<Entity> {
 
-	private ArrayList<Entity> entities = new ArrayList<>();
-	private Set<Integer> ids = new HashSet<>();
+	private static final int DEFAULT_CAPACITY = 16;
 
+	/**
+	 * The entities in insertion order, with {@code null} in the slots of removed ones.
+	 * Only the first {@link #end} slots are in use.
+	 */
+	private BaseEntity[] slots;
+
+	private int end;
+
+	private int size;
+
+	private final IntIntMap index;
+
+	private int modCount;
+
+	private final Map<Comparator<? super Entity>, TreeSet<Entity>> sortedViews = new HashMap<>();
+
+	public IdentityMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of entities the map should hold without growing
+	 */
+	public IdentityMap(int expectedSize) {
+		this.slots = new BaseEntity[Math.max(expectedSize, DEFAULT_CAPACITY)];
+		this.index = new IntIntMap(expectedSize);
+	}
 
 	@Override
 	public int size() {
-		return ids.size();
+		return size;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return ids.isEmpty();
+		return size == 0;
 	}
 
 	@Override
 	public boolean contains(Object o) {
-		if(o instanceof BaseEntity) {
-			return ids.contains(((BaseEntity) o).getId());
-		} else {
-			return false;
-		}
+		Integer id = idOf(o);
+		return id != null && index.containsKey(id);
+	}
+
+	/**
+	 * Returns the entity with the given id, or {@code null} if there is none.
+	 */
+	public Entity get(Integer id) {
+		int slot = (id == null) ? IntIntMap.MISSING : index.get(id);
+		return (slot == IntIntMap.MISSING) ? null : entityAt(slot);
 	}
 
 	@Override
 	public Iterator<Entity> iterator() {
-		throw new UnsupportedOperationException();
+		return new Itr();
+	}
+
+	/**
+	 * Returns a fail-fast spliterator over the entities in insertion order that reports
+	 * {@link Spliterator#SIZED}, {@link Spliterator#DISTINCT} and
+	 * {@link Spliterator#NONNULL}. Without empty slots its splits know their exact size as
+	 * well and it also reports {@link Spliterator#SUBSIZED}; with them, the splits skip the
+	 * empty slots and estimate their size as half of what they were split from.
+	 */
+	@Override
+	public Spliterator<Entity> spliterator() {
+		int sized = (end == size) ? Spliterator.SIZED | Spliterator.SUBSIZED : Spliterator.SIZED;
+		return new Split(0, end, modCount, size, sized);
+	}
+
+	/**
+	 * Returns a collector that adds the stream's entities to a new {@link IdentityMap}.
+	 * As with {@link #add}, of several entities with the same id the last one in
+	 * encounter order is kept, in the position of the first.
+	 */
+	public static <Entity extends BaseEntity> Collector<Entity, ?, IdentityMap<Entity>> toIdentityMap() {
+		return Collector.of(IdentityMap::new, IdentityMap::add, (left, right) -> {
+			left.addAll(right);
+			return left;
+		});
 	}
 
 	@Override
 	public Object[] toArray() {
-		throw new UnsupportedOperationException();
+		return copyInto(new Object[size]);
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T[] toArray(T[] ts) {
-		throw new UnsupportedOperationException();
+		if (ts.length < size) {
+			ts = (T[]) Array.newInstance(ts.getClass().getComponentType(), size);
+		}
+		copyInto(ts);
+		if (ts.length > size) {
+			ts[size] = null;
+		}
+		return ts;
 	}
 
+	/**
+	 * Adds the entity, or replaces the entity with the same id while keeping its
+	 * position.
+	 * @return {@code false} only if this very entity was already present
+	 * @throws IllegalArgumentException if the entity has no id yet
+	 */
 	@Override
 	public boolean add(Entity entity) {
-		if(!ids.contains(entity)) {
-			ids.add(entity.getId());
-			entities.add(entity);
-		} else {
-			entities.removeIf(entity::sameId);
-			this.add(entity);
+		Integer id = entity.getId();
+		if (id == null) {
+			throw new IllegalArgumentException("Only entities with an id can be added");
+		}
+		int slot = index.get(id);
+		if (slot != IntIntMap.MISSING) {
+			Entity previous = entityAt(slot);
+			if (previous == entity) {
+				return false;
+			}
+			slots[slot] = entity;
+			for (TreeSet<Entity> view : sortedViews.values()) {
+				view.remove(previous);
+				view.add(entity);
+			}
+			return true;
+		}
+		if (end == slots.length) {
+			makeRoom();
+		}
+		slots[end] = entity;
+		index.put(id, end);
+		for (TreeSet<Entity> view : sortedViews.values()) {
+			view.add(entity);
 		}
+		end++;
+		size++;
+		modCount++;
 		return true;
 	}
 
+	/**
+	 * Removes the entity with the same id as the given one.
+	 */
 	@Override
 	public boolean remove(Object object) {
-		if(object instanceof BaseEntity) {
-			if(ids.remove(((BaseEntity) object).getId())) {
-				return entities.removeIf(((BaseEntity) object)::sameId);
-			}
+		Integer id = idOf(object);
+		int slot = (id == null) ? IntIntMap.MISSING : index.get(id);
+		if (slot == IntIntMap.MISSING) {
+			return false;
+		}
+		removeAt(slot);
+		if (end - size > end / 2 && end > DEFAULT_CAPACITY) {
+			compact();
 		}
-		return false;
+		return true;
 	}
 
 	@Override
@@ -100,16 +222,293 @@ public class IdentityMap<Entity extends BaseEntity> implements Collection<Entity
 
 	@Override
 	public boolean retainAll(Collection<?> collection) {
-		throw new UnsupportedOperationException();
+		boolean collectionChanged = false;
+		for (int slot = 0; slot < end; slot++) {
+			BaseEntity entity = slots[slot];
+			if (entity != null && !collection.contains(entity)) {
+				removeAt(slot);
+				collectionChanged = true;
+			}
+		}
+		if (collectionChanged) {
+			compact();
+		}
+		return collectionChanged;
 	}
 
 	@Override
 	public void clear() {
-		ids.clear();
-		entities.clear();
+		Arrays.fill(slots, 0, end, null);
+		index.clear();
+		sortedViews.values().forEach(TreeSet::clear);
+		end = 0;
+		size = 0;
+		modCount++;
 	}
 
 	public void sort(Comparator<Entity> comparator) {
-		entities.sort(comparator);
+		compact();
+		@SuppressWarnings("unchecked")
+		Entity[] entities = (Entity[]) slots;
+		Arrays.sort(entities, 0, size, comparator);
+		for (int slot = 0; slot < size; slot++) {
+			index.put(entityAt(slot).getId(), slot);
+		}
+		modCount++;
+	}
+
+	/**
+	 * Returns a read-only view of the entities ordered by the given comparator, with ties
+	 * broken by id. The view is kept up to date as entities are added, replaced and
+	 * removed, and supports ordered range iteration through {@link NavigableSet#subSet}
+	 * and friends. Asking again with the same comparator returns the same view.
+	 * <p>
+	 * The fields the comparator looks at must not change while the entity is in the map,
+	 * or the view can no longer find it; remove the entity, change it, then add it again.
+	 */
+	public NavigableSet<Entity> sortedBy(Comparator<? super Entity> comparator) {
+		TreeSet<Entity> view = sortedViews.get(comparator);
+		if (view == null) {
+			view = new TreeSet<>(thenById(comparator));
+			for (Entity entity : this) {
+				view.add(entity);
+			}
+			sortedViews.put(comparator, view);
+		}
+		return Collections.unmodifiableNavigableSet(view);
+	}
+
+	/**
+	 * Stops maintaining the view registered for the given comparator.
+	 * @return whether such a view was registered
+	 */
+	public boolean removeSortedView(Comparator<? super Entity> comparator) {
+		return sortedViews.remove(comparator) != null;
+	}
+
+	@Override
+	public String toString() {
+		StringJoiner joiner = new StringJoiner(", ", "[", "]");
+		for (Entity entity : this) {
+			joiner.add(String.valueOf(entity));
+		}
+		return joiner.toString();
 	}
+
+	@SuppressWarnings("unchecked")
+	private Entity entityAt(int slot) {
+		return (Entity) slots[slot];
+	}
+
+	private void removeAt(int slot) {
+		Entity entity = entityAt(slot);
+		for (TreeSet<Entity> view : sortedViews.values()) {
+			view.remove(entity);
+		}
+		index.remove(entity.getId());
+		slots[slot] = null;
+		size--;
+		modCount++;
+		if (size == 0) {
+			end = 0;
+		}
+	}
+
+	/**
+	 * Called when every slot is in use: reclaims the empty slots if there are enough of
+	 * them to be worth it, and grows the array otherwise.
+	 */
+	private void makeRoom() {
+		if (end - size >= slots.length / 4) {
+			compact();
+		}
+		else {
+			slots = Arrays.copyOf(slots, slots.length * 2);
+		}
+	}
+
+	/**
+	 * Moves the entities to the front of the array, keeping their order.
+	 */
+	private void compact() {
+		if (end == size) {
+			return;
+		}
+		int target = 0;
+		for (int slot = 0; slot < end; slot++) {
+			BaseEntity entity = slots[slot];
+			if (entity != null) {
+				if (slot != target) {
+					slots[target] = entity;
+					index.put(entity.getId(), target);
+				}
+				target++;
+			}
+		}
+		Arrays.fill(slots, size, end, null);
+		end = size;
+		modCount++;
+	}
+
+	/**
+	 * Copies the entities to the front of the array, which has room for them all, leaving
+	 * this map as it is.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T[] copyInto(T[] array) {
+		if (end == size) {
+			System.arraycopy(slots, 0, array, 0, size);
+			return array;
+		}
+		int target = 0;
+		for (int slot = 0; slot < end; slot++) {
+			if (slots[slot] != null) {
+				array[target++] = (T) slots[slot];
+			}
+		}
+		return array;
+	}
+
+	private static <Entity extends BaseEntity> Comparator<Entity> thenById(Comparator<? super Entity> comparator) {
+		return (first, second) -> {
+			int order = comparator.compare(first, second);
+			return (order != 0) ? order : first.getId().compareTo(second.getId());
+		};
+	}
+
+	private static Integer idOf(Object object) {
+		return (object instanceof BaseEntity) ? ((BaseEntity) object).getId() : null;
+	}
+
+	private final class Split implements Spliterator<Entity> {
+
+		private int index;
+
+		private final int fence;
+
+		private final int expectedModCount;
+
+		/**
+		 * The entities left, exact while {@link Spliterator#SIZED} is reported.
+		 */
+		private long estimate;
+
+		private int sized;
+
+		Split(int origin, int fence, int expectedModCount, long estimate, int sized) {
+			this.index = origin;
+			this.fence = fence;
+			this.expectedModCount = expectedModCount;
+			this.estimate = estimate;
+			this.sized = sized;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Entity> action) {
+			while (index < fence) {
+				Entity entity = entityAt(index++);
+				if (entity != null) {
+					estimate--;
+					action.accept(entity);
+					checkForComodification();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Entity> action) {
+			for (; index < fence; index++) {
+				Entity entity = entityAt(index);
+				if (entity != null) {
+					action.accept(entity);
+				}
+			}
+			estimate = 0;
+			checkForComodification();
+		}
+
+		@Override
+		public Spliterator<Entity> trySplit() {
+			int origin = index;
+			int middle = (origin + fence) >>> 1;
+			if (origin >= middle) {
+				return null;
+			}
+			index = middle;
+			if ((sized & SUBSIZED) != 0) {
+				estimate -= middle - origin;
+				return new Split(origin, middle, expectedModCount, middle - origin, sized);
+			}
+			// the empty slots could be anywhere, so neither half knows its size
+			long half = estimate >>> 1;
+			estimate -= half;
+			sized = 0;
+			return new Split(origin, middle, expectedModCount, half, 0);
+		}
+
+		@Override
+		public long estimateSize() {
+			return estimate;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | NONNULL | sized;
+		}
+
+		private void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+
+	}
+
+	private class Itr implements Iterator<Entity> {
+
+		private int cursor;
+
+		private int lastReturned = -1;
+
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			checkForComodification();
+			while (cursor < end && slots[cursor] == null) {
+				cursor++;
+			}
+			return cursor < end;
+		}
+
+		@Override
+		public Entity next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			lastReturned = cursor++;
+			return entityAt(lastReturned);
+		}
+
+		@Override
+		public void remove() {
+			if (lastReturned < 0) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			removeAt(lastReturned);
+			lastReturned = -1;
+			expectedModCount = modCount;
+		}
+
+		private void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+
+	}
+
 }
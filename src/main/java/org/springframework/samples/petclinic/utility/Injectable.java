@@ -0,0 +1,25 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class to be wired by {@link SimpleDI} through a {@link WiringIndex} generated
+ * at compile time by {@link WiringIndexProcessor}, rather than through reflection when it
+ * is first asked for.
+ * <p>
+ * The class must be a concrete class that is not private, nor nested in a private or
+ * inner class, with a single constructor that is not private, or else a no-argument one
+ * that is not private.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Injectable {
+
+	SimpleDI.Scope scope() default SimpleDI.Scope.SINGLETON;
+
+}
@@ -0,0 +1,84 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter over {@code int} ids. {@link #mightContain} never returns
+ * {@code false} for an id that was {@link #put}; it returns {@code true} for an id that
+ * was not put with roughly the false positive probability the filter was sized for.
+ * <p>
+ * The bit positions for an id are derived from two hashes with the Kirsch-Mitzenmacher
+ * scheme, {@code h1 + i * h2}, instead of computing {@code k} independent hashes. Bits
+ * are set with a compare-and-set loop, so concurrent puts never lose each other's bits.
+ */
+final class IntBloomFilter {
+
+	private final AtomicLongArray words;
+
+	private final long bitCount;
+
+	private final int hashCount;
+
+	/**
+	 * @param expectedInsertions how many ids the filter should hold
+	 * @param falsePositiveProbability the desired false positive probability at that
+	 * size, between 0 and 1
+	 */
+	IntBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+		if (expectedInsertions <= 0 || falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+			throw new IllegalArgumentException("expected insertions must be positive and the probability in (0, 1)");
+		}
+		long bits = (long) (-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+		int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) >>> 6));
+		this.words = new AtomicLongArray(wordCount);
+		this.bitCount = (long) wordCount << 6;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+	}
+
+	void put(int id) {
+		long hash1 = mix(id);
+		long hash2 = mix(hash1);
+		for (int i = 0; i < hashCount; i++) {
+			setBit(index(hash1, hash2, i));
+		}
+	}
+
+	boolean mightContain(int id) {
+		long hash1 = mix(id);
+		long hash2 = mix(hash1);
+		for (int i = 0; i < hashCount; i++) {
+			long bit = index(hash1, hash2, i);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long index(long hash1, long hash2, int i) {
+		return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+	}
+
+	private void setBit(long bit) {
+		int word = (int) (bit >>> 6);
+		long mask = 1L << bit;
+		long current;
+		while (((current = words.get(word)) & mask) == 0) {
+			if (words.compareAndSet(word, current, current | mask)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator, which spreads every input bit over the
+	 * whole result.
+	 */
+	private static long mix(long value) {
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
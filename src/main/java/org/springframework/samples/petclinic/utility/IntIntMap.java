@@ -0,0 +1,169 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive {@code int} keys to non-negative {@code int} values that neither
+ * boxes nor allocates per mapping, for indexes that hold millions of ids.
+ * <p>
+ * The map is an open-addressing hash table with linear probing held in two parallel
+ * {@code int[]} arrays, with {@value #MISSING} marking an empty slot. Removal shifts the
+ * following entries of the probe run back instead of leaving a tombstone, so lookups
+ * stay short however many mappings come and go. Not thread-safe.
+ */
+final class IntIntMap {
+
+	/**
+	 * Returned for a key that has no mapping, and stored in empty slots.
+	 */
+	static final int MISSING = -1;
+
+	private static final int MINIMUM_CAPACITY = 16;
+
+	private int[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	IntIntMap() {
+		this(MINIMUM_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of mappings the map should hold without rehashing
+	 */
+	IntIntMap(int expectedSize) {
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Returns the value mapped to the key, or {@link #MISSING} if there is none.
+	 */
+	int get(int key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int value = values[i];
+			if (value == MISSING || keys[i] == key) {
+				return value;
+			}
+		}
+	}
+
+	boolean containsKey(int key) {
+		return get(key) != MISSING;
+	}
+
+	/**
+	 * Maps the key to the value, which must not be negative.
+	 * @return the value previously mapped to the key, or {@link #MISSING}
+	 */
+	int put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative");
+		}
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != MISSING) {
+			if (keys[i] == key) {
+				int previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 4 > keys.length * 3) {
+			rehash(keys.length * 2);
+		}
+		return MISSING;
+	}
+
+	/**
+	 * Removes the mapping for the key.
+	 * @return the value that was mapped to the key, or {@link #MISSING}
+	 */
+	int remove(int key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != MISSING) {
+			if (keys[i] == key) {
+				int previous = values[i];
+				shiftBack(i, mask);
+				size--;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		return MISSING;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(values, MISSING);
+		size = 0;
+	}
+
+	/**
+	 * Empties slot {@code hole} and moves back every later entry of the probe run that
+	 * would otherwise no longer be reachable from its home slot.
+	 */
+	private void shiftBack(int hole, int mask) {
+		for (int i = (hole + 1) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+			int home = hash(keys[i]) & mask;
+			// the entry may move into the hole unless its home lies cyclically in (hole, i]
+			boolean reachable = (hole <= i) ? (hole < home && home <= i) : (hole < home || home <= i);
+			if (!reachable) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+		values[hole] = MISSING;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] != MISSING) {
+				int i = hash(oldKeys[j]) & mask;
+				while (values[i] != MISSING) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, MISSING);
+	}
+
+	/**
+	 * Spreads the key with a Fibonacci multiplier, as sequential ids would otherwise land
+	 * in long runs of neighbouring slots.
+	 */
+	private static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int tableSizeFor(int size) {
+		int capacity = MINIMUM_CAPACITY;
+		while (capacity < size * 4 / 3 + 1) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
@@ -0,0 +1,311 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Second cache tier that keeps values serialized in a direct {@link ByteBuffer}, outside
+ * the Java heap, so that however many entries it holds they add nothing to the work of
+ * the garbage collector. Its capacity is set in bytes, independently of the heap size.
+ * <p>
+ * The buffer is used as a circular log: records are appended at a write position that
+ * wraps around at the end of the buffer, and the oldest records are overwritten to make
+ * room (FIFO eviction). Only a small index of offsets lives on the heap. Readers copy a
+ * record out under an optimistic {@link StampedLock} read and fall back to a real read
+ * lock only when a writer got in the way. Every read deserializes the record, so callers
+ * get their own copy of the value.
+ * <p>
+ * Values are written with Java serialization. Values that cannot be serialized, or that
+ * are larger than the whole buffer, are not stored.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of stored values
+ */
+final class OffHeapStore<K, V> {
+
+	private static final Logger log = LoggerFactory.getLogger(OffHeapStore.class);
+
+	private final ByteBuffer arena;
+
+	private final Map<K, Record<K>> index = new ConcurrentHashMap<>();
+
+	private final StampedLock lock = new StampedLock();
+
+	private final LongSupplier ticker;
+
+	private final LongAdder evictions = new LongAdder();
+
+	// the fields below are guarded by the write lock
+
+	private final ArrayDeque<Record<K>> records = new ArrayDeque<>();
+
+	private int writeOffset;
+
+	private long usedBytes;
+
+	/**
+	 * @param capacityInBytes the size of the direct buffer, at most 2 GB
+	 * @param ticker a nanosecond time source, the same one used for expiry times
+	 */
+	OffHeapStore(long capacityInBytes, LongSupplier ticker) {
+		if (capacityInBytes <= 0 || capacityInBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("off-heap capacity must be between 1 byte and 2 GB");
+		}
+		this.arena = ByteBuffer.allocateDirect((int) capacityInBytes);
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Returns a copy of the live value for the key, or {@code null} if it is absent,
+	 * expired or was overwritten.
+	 */
+	V getIfPresent(K key) {
+		Record<K> record = index.get(key);
+		if (record == null || record.isExpired(ticker.getAsLong())) {
+			return null;
+		}
+		byte[] bytes = new byte[record.length];
+		long stamp = lock.tryOptimisticRead();
+		boolean alive = record.alive;
+		copy(record, bytes);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				alive = record.alive;
+				copy(record, bytes);
+			}
+			finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (!alive) {
+			return null;
+		}
+		try {
+			return deserialize(bytes);
+		}
+		catch (RuntimeException ex) {
+			log.warn("Could not read {} from the off-heap cache, dropping it", key, ex);
+			invalidate(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a value, replacing any stored under the key.
+	 * @param expiresAt the {@link #ticker} value at which the entry expires
+	 * @return whether the value was stored
+	 */
+	boolean put(K key, V value, long expiresAt) {
+		byte[] bytes;
+		try {
+			bytes = serialize(value);
+		}
+		catch (RuntimeException ex) {
+			log.debug("Not moving {} off-heap, it cannot be serialized", key, ex);
+			invalidate(key);
+			return false;
+		}
+		long stamp = lock.writeLock();
+		try {
+			kill(index.remove(key));
+			if (bytes.length > arena.capacity()) {
+				return false;
+			}
+			int offset = allocate(bytes.length);
+			ByteBuffer view = arena.duplicate();
+			view.position(offset);
+			view.put(bytes);
+			Record<K> record = new Record<>(key, offset, bytes.length, expiresAt);
+			records.addLast(record);
+			index.put(key, record);
+			usedBytes += bytes.length;
+			writeOffset = offset + bytes.length;
+			return true;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Discards the value for the key, if present.
+	 */
+	void invalidate(K key) {
+		long stamp = lock.writeLock();
+		try {
+			kill(index.remove(key));
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Releases the oldest records as long as they have expired or were replaced. Expired
+	 * records further along the log are not returned by reads and are overwritten in
+	 * turn.
+	 */
+	void cleanUp() {
+		long now = ticker.getAsLong();
+		long stamp = lock.writeLock();
+		try {
+			Record<K> record;
+			while ((record = records.peekFirst()) != null && (!record.alive || record.isExpired(now))) {
+				records.removeFirst();
+				release(record);
+			}
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Returns the number of stored entries, which may include expired entries.
+	 */
+	long size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the number of bytes taken by stored entries.
+	 */
+	long usedBytes() {
+		long stamp = lock.readLock();
+		try {
+			return usedBytes;
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	long capacity() {
+		return arena.capacity();
+	}
+
+	/**
+	 * Returns how many live entries were overwritten to make room for new ones.
+	 */
+	long evictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Finds room for a record of the given length at the write position, wrapping around
+	 * to the start of the buffer if it does not fit before the end, and evicts the oldest
+	 * records that overlap it.
+	 */
+	private int allocate(int length) {
+		int offset = writeOffset;
+		if (offset + length > arena.capacity()) {
+			// the records between the write position and the end are the oldest ones
+			evictOverlapping(offset, arena.capacity());
+			offset = 0;
+		}
+		evictOverlapping(offset, offset + length);
+		return offset;
+	}
+
+	private void evictOverlapping(int from, int to) {
+		Record<K> record;
+		while ((record = records.peekFirst()) != null && record.offset >= from && record.offset < to) {
+			records.removeFirst();
+			if (record.alive) {
+				evictions.increment();
+			}
+			release(record);
+		}
+	}
+
+	private void release(Record<K> record) {
+		if (record.alive) {
+			index.remove(record.key, record);
+			kill(record);
+		}
+	}
+
+	private void kill(Record<K> record) {
+		if (record != null && record.alive) {
+			record.alive = false;
+			usedBytes -= record.length;
+		}
+	}
+
+	private void copy(Record<K> record, byte[] bytes) {
+		ByteBuffer view = arena.duplicate();
+		view.position(record.offset);
+		view.get(bytes);
+	}
+
+	private static byte[] serialize(Object value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> V deserialize(byte[] bytes) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (V) in.readObject();
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		catch (ClassNotFoundException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Where a value lives in the buffer. Records stay in the log after they are replaced
+	 * or invalidated, marked dead, until the write position reaches them.
+	 */
+	private static final class Record<K> {
+
+		final K key;
+
+		final int offset;
+
+		final int length;
+
+		final long expiresAt;
+
+		// written under the write lock, read under an optimistic or real read lock
+
+		boolean alive = true;
+
+		Record(K key, int offset, int length, long expiresAt) {
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+
+	}
+
+}
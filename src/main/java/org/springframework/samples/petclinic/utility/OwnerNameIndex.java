@@ -0,0 +1,359 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.samples.petclinic.owner.OwnerCursor;
+import org.springframework.samples.petclinic.owner.OwnerPage;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.OwnerSavedEvent;
+import org.springframework.samples.petclinic.owner.OwnerSuggestion;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers owner searches by last name prefix from memory, so that the database is only
+ * asked for the owners of the page shown.
+ * <p>
+ * The last names are kept as saved in an array sorted by name ignoring case, then id,
+ * like the database sorts a search, next to an array of the owner ids. A search is two
+ * binary searches for the range of names with the prefix, and one more for the cursor of
+ * the page, so the same arrays also answer the {@link #suggest suggestions} shown while
+ * a name is typed without touching the database. The arrays are never changed once
+ * published in a volatile field: saving an owner under a new name copies them with the
+ * owner moved to its new place, which costs a few milliseconds for a million owners but
+ * lets every search run without a lock. Saving an owner whose last name is unchanged
+ * finds it with one more binary search and copies nothing.
+ * <p>
+ * The index is loaded when the application context starts, before the web server
+ * accepts requests, and follows every {@link OwnerSavedEvent} once its transaction
+ * commits. Saves that commit while it is loading are applied after it. Until it is
+ * loaded, or if loading fails, {@link #isReady()} is false and searches should go to
+ * the database.
+ */
+@Component
+public class OwnerNameIndex implements SmartLifecycle, MeterBinder {
+
+	private static final Logger log = LoggerFactory.getLogger(OwnerNameIndex.class);
+
+	private final OwnerRepository owners;
+
+	private final AtomicLong loadMillis = new AtomicLong();
+
+	private volatile Entries entries = new Entries(new String[0], new int[0]);
+
+	private volatile Timer suggestions;
+
+	private volatile boolean ready;
+
+	private volatile boolean running;
+
+	private List<OwnerSavedEvent> savedWhileLoading;
+
+	public OwnerNameIndex(OwnerRepository owners) {
+		this.owners = owners;
+	}
+
+	@Override
+	public void start() {
+		load();
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Starts before the web server, like the {@link PetTimedCacheSnapshot}.
+	 */
+	@Override
+	public int getPhase() {
+		return 1;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("petclinic.owners.name-index.size", this, OwnerNameIndex::size)
+				.description("Owners in the last name index").register(registry);
+		TimeGauge.builder("petclinic.owners.name-index.load", loadMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+				.description("Time spent loading the last name index at startup").register(registry);
+		suggestions = Timer.builder("petclinic.owners.suggest").publishPercentiles(0.5, 0.99)
+				.description("Time spent suggesting last names").register(registry);
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public int size() {
+		return entries.ids.length;
+	}
+
+	/**
+	 * Finds a page of owners whose last name starts with the prefix, ignoring case, and
+	 * loads only those owners from the database.
+	 * @see OwnerRepository#findPageByLastName
+	 */
+	public OwnerPage findPage(String lastName, OwnerCursor after, OwnerCursor before, int size) {
+		Match match = match(lastName, after, before, size);
+		List<Integer> ids = new ArrayList<>(match.ids.length);
+		for (int id : match.ids) {
+			ids.add(id);
+		}
+		return owners.findPageByIds(ids, match.hasPrevious, match.hasNext);
+	}
+
+	/**
+	 * Returns the first owners whose last name starts with the prefix, ignoring case,
+	 * sorted by last name then id, or none for an empty prefix.
+	 */
+	public List<OwnerSuggestion> suggest(String prefix, int limit) {
+		if (prefix == null || prefix.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		long start = System.nanoTime();
+		Entries entries = this.entries;
+		int from = entries.search(prefix, Integer.MIN_VALUE);
+		int to = Math.min(from + limit, entries.search(prefix + Character.MAX_VALUE, Integer.MIN_VALUE));
+		List<OwnerSuggestion> suggested = new ArrayList<>(Math.max(0, to - from));
+		for (int i = from; i < to; i++) {
+			suggested.add(new OwnerSuggestion(entries.ids[i], entries.names[i]));
+		}
+		if (suggestions != null) {
+			suggestions.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		return suggested;
+	}
+
+	/**
+	 * Returns the ids of the owners in the page, sorted by last name then id.
+	 */
+	Match match(String lastName, OwnerCursor after, OwnerCursor before, int size) {
+		Entries entries = this.entries;
+		String prefix = (lastName == null) ? "" : lastName;
+		int from = entries.search(prefix, Integer.MIN_VALUE);
+		// every name with the prefix sorts before the prefix followed by the highest char
+		int to = entries.search(prefix + Character.MAX_VALUE, Integer.MIN_VALUE);
+		int start;
+		int end;
+		if (after == null && before != null) {
+			end = Math.max(from, Math.min(to, entries.search(before.getLastName(), before.getId())));
+			start = Math.max(from, end - size);
+		}
+		else {
+			start = (after == null) ? from
+					: Math.min(to, Math.max(from, entries.search(after.getLastName(), after.getId() + 1)));
+			end = Math.min(to, start + size);
+		}
+		return new Match(Arrays.copyOfRange(entries.ids, start, end), start > from, end < to);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onOwnerSaved(OwnerSavedEvent event) {
+		synchronized (this) {
+			if (savedWhileLoading != null) {
+				savedWhileLoading.add(event);
+				return;
+			}
+		}
+		put(event.getOwnerId(), event.getLastName());
+	}
+
+	/**
+	 * Indexes the owner under its last name, in place of any name it had before.
+	 */
+	synchronized void put(int id, String lastName) {
+		entries = entries.with(id, (lastName == null) ? "" : lastName);
+	}
+
+	void load() {
+		long start = System.nanoTime();
+		synchronized (this) {
+			savedWhileLoading = new ArrayList<>();
+		}
+		try {
+			List<Object[]> rows = owners.findAllIdsAndLastNames();
+			Entry[] sorted = new Entry[rows.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				String name = (String) rows.get(i)[1];
+				sorted[i] = new Entry((name == null) ? "" : name, (Integer) rows.get(i)[0]);
+			}
+			Arrays.sort(sorted);
+			String[] names = new String[sorted.length];
+			int[] ids = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				names[i] = sorted[i].name;
+				ids[i] = sorted[i].id;
+			}
+			synchronized (this) {
+				Entries loaded = new Entries(names, ids);
+				for (OwnerSavedEvent event : savedWhileLoading) {
+					loaded = loaded.with(event.getOwnerId(),
+								(event.getLastName() == null) ? "" : event.getLastName());
+				}
+				entries = loaded;
+				ready = true;
+				// later saves see the published entries, so none is left in the list
+				savedWhileLoading = null;
+			}
+			loadMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			log.info("Indexed the last names of {} owners in {} ms", ids.length, loadMillis.get());
+		}
+		catch (RuntimeException ex) {
+			log.warn("Could not index the owner last names, searching the database instead", ex);
+		}
+		finally {
+			// only still set if loading failed
+			synchronized (this) {
+				savedWhileLoading = null;
+			}
+		}
+	}
+
+	/**
+	 * Compares names a char at a time ignoring case, without allocating folded copies.
+	 */
+	static int compareIgnoringCase(String first, String second) {
+		int length = Math.min(first.length(), second.length());
+		for (int i = 0; i < length; i++) {
+			char a = first.charAt(i);
+			char b = second.charAt(i);
+			if (a != b) {
+				a = Character.toLowerCase(a);
+				b = Character.toLowerCase(b);
+				if (a != b) {
+					return a - b;
+				}
+			}
+		}
+		return first.length() - second.length();
+	}
+
+	/**
+	 * The ids of a page of owners, and whether there are more with the same prefix on
+	 * either side.
+	 */
+	static final class Match {
+
+		final int[] ids;
+
+		final boolean hasPrevious;
+
+		final boolean hasNext;
+
+		Match(int[] ids, boolean hasPrevious, boolean hasNext) {
+			this.ids = ids;
+			this.hasPrevious = hasPrevious;
+			this.hasNext = hasNext;
+		}
+
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+
+		final String name;
+
+		final int id;
+
+		Entry(String name, int id) {
+			this.name = name;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int byName = compareIgnoringCase(name, other.name);
+			return (byName != 0) ? byName : Integer.compare(id, other.id);
+		}
+
+	}
+
+	/**
+	 * Last names and their owner ids, sorted by name ignoring case, then id.
+	 */
+	private static final class Entries {
+
+		final String[] names;
+
+		final int[] ids;
+
+		Entries(String[] names, int[] ids) {
+			this.names = names;
+			this.ids = ids;
+		}
+
+		/**
+		 * Returns the index of the first entry that is not before the name and id.
+		 */
+		int search(String name, int id) {
+			int low = 0;
+			int high = ids.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				int byName = compareIgnoringCase(names[middle], name);
+				if (byName < 0 || (byName == 0 && ids[middle] < id)) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns a copy with the id moved to its place for the name, or these entries if
+		 * the id already has that name.
+		 */
+		Entries with(int id, String name) {
+			int insert = search(name, id);
+			if (insert < ids.length && ids[insert] == id && names[insert].equals(name)) {
+				return this;
+			}
+			// the name changed, so the whole arrays are copied anyway
+			int old = -1;
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] == id) {
+					old = i;
+					break;
+				}
+			}
+			int length = (old >= 0) ? ids.length : ids.length + 1;
+			String[] newNames = new String[length];
+			int[] newIds = new int[length];
+			int to = 0;
+			for (int from = 0; from <= ids.length; from++) {
+				if (from == insert) {
+					newNames[to] = name;
+					newIds[to++] = id;
+				}
+				if (from < ids.length && from != old) {
+					newNames[to] = names[from];
+					newIds[to++] = ids[from];
+				}
+			}
+			return new Entries(newNames, newIds);
+		}
+
+	}
+
+}
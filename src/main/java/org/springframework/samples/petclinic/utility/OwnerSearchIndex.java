@@ -0,0 +1,757 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.samples.petclinic.owner.Owner;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.OwnerSavedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Finds owners by first name, last name, city or telephone, tolerating misspellings, with
+ * an inverted index of the trigrams of those fields.
+ * <p>
+ * Text is folded to 38 symbols: letters without case or accents, digits, other letters,
+ * and a separator for everything else. Every word is padded with a separator on each
+ * side and cut into its overlapping three-symbol trigrams, so a trigram fits in a
+ * {@code char} and the index is an array of {@value #TRIGRAMS} posting lists, one per
+ * possible trigram, holding the slots of the owners with that trigram in any field. The
+ * sorted trigrams of each owner's fields are kept as well.
+ * <p>
+ * Every posting list is sorted by slot. A search merges the posting lists of the
+ * query's trigrams, counting hits per owner, taking them from the shortest until it
+ * would read more than a budget of postings: the trigrams of common words are the least
+ * selective and are left out first. The owners with the most hits are
+ * then scored exactly against their fields, as the sum over fields of the field weight
+ * times the Jaccard similarity of the query's and the field's trigrams, and the best
+ * are returned. The budget and the number of owners scored bound the work of a search
+ * however many owners there are.
+ * <p>
+ * The index is built in parallel when the application context starts, in two passes
+ * that count, then fill, the posting lists of every chunk of owners, and follows every
+ * {@link OwnerSavedEvent} once its transaction commits. A saved owner's new trigrams are
+ * inserted into their lists, while those it lost stay there until enough have gone stale
+ * that the lists are rebuilt; searches ignore them since scoring reads the owner's
+ * current trigrams. Searches share a read lock and saves take the write lock. A rebuild
+ * runs in the background from a copy of the owners' trigrams, without the lock, and is
+ * swapped in under the write lock once the saves made meanwhile are replayed onto it.
+ */
+@Component
+public class OwnerSearchIndex implements SmartLifecycle, MeterBinder {
+
+	private static final Logger log = LoggerFactory.getLogger(OwnerSearchIndex.class);
+
+	static final int SYMBOLS = 38;
+
+	static final int TRIGRAMS = SYMBOLS * SYMBOLS * SYMBOLS;
+
+	private static final int FIELDS = 4;
+
+	/**
+	 * The weights of the first name, last name, city and telephone, in the order the
+	 * fields are kept.
+	 */
+	private static final double[] WEIGHTS = { 0.8, 1.0, 0.6, 0.6 };
+
+	private static final double MINIMUM_SCORE = 0.2;
+
+	private static final int[] NO_POSTINGS = new int[0];
+
+	private final OwnerRepository owners;
+
+	private final int postingBudget;
+
+	private final int maximumCandidates;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final AtomicLong buildMillis = new AtomicLong();
+
+	private final AtomicLong rebuilds = new AtomicLong();
+
+	private volatile Timer searches;
+
+	private volatile State state;
+
+	private volatile boolean running;
+
+	private List<OwnerSavedEvent> savedWhileBuilding;
+
+	/**
+	 * The saves made since the running rebuild copied the trigrams, or {@code null} when
+	 * no rebuild runs. Guarded by the write lock.
+	 */
+	private List<OwnerSavedEvent> savedWhileRebuilding;
+
+	/**
+	 * @param postingBudget how many postings a search reads at most
+	 * @param maximumCandidates how many owners a search scores at most
+	 */
+	@Autowired
+	public OwnerSearchIndex(OwnerRepository owners,
+			@Value("${petclinic.owners.search.posting-budget:50000}") int postingBudget,
+			@Value("${petclinic.owners.search.maximum-candidates:500}") int maximumCandidates) {
+		this.owners = owners;
+		this.postingBudget = postingBudget;
+		this.maximumCandidates = maximumCandidates;
+	}
+
+	@Override
+	public void start() {
+		load();
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Starts before the web server, like the {@link OwnerNameIndex}.
+	 */
+	@Override
+	public int getPhase() {
+		return 1;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("petclinic.owners.search-index.size", this, OwnerSearchIndex::size)
+				.description("Owners in the search index").register(registry);
+		TimeGauge.builder("petclinic.owners.search-index.build", buildMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+				.description("Time spent building the search index at startup").register(registry);
+		FunctionCounter.builder("petclinic.owners.search-index.rebuilds", rebuilds, AtomicLong::get)
+				.description("Rebuilds of the posting lists after saves").register(registry);
+		searches = Timer.builder("petclinic.owners.search").publishPercentiles(0.5, 0.99)
+				.description("Time spent searching the index").register(registry);
+	}
+
+	public boolean isReady() {
+		return state != null;
+	}
+
+	public int size() {
+		State state = this.state;
+		return (state == null) ? 0 : state.size;
+	}
+
+	/**
+	 * Finds the owners that best match the query, best first.
+	 * @see #search
+	 */
+	public List<Owner> findOwners(String query, int limit) {
+		List<Hit> hits = search(query, limit);
+		List<Integer> ids = new ArrayList<>(hits.size());
+		for (Hit hit : hits) {
+			ids.add(hit.getOwnerId());
+		}
+		return owners.findPageByIds(ids, false, false).getOwners();
+	}
+
+	/**
+	 * Returns the ids and scores of the owners that best match the query in any field,
+	 * best first, and for equal scores by id.
+	 */
+	public List<Hit> search(String query, int limit) {
+		char[] grams = trigrams(query);
+		if (grams.length == 0 || limit <= 0 || state == null) {
+			return Collections.emptyList();
+		}
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			State state = this.state;
+			Candidates candidates = collect(state, grams);
+			PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Hit.WORST_FIRST);
+			for (int i = 0; i < candidates.size; i++) {
+				int slot = candidates.slots[i];
+				double score = score(grams, state.docs[slot]);
+				if (score >= MINIMUM_SCORE) {
+					best.add(new Hit(state.ids[slot], score));
+					if (best.size() > limit) {
+						best.poll();
+					}
+				}
+			}
+			List<Hit> hits = new ArrayList<>(best);
+			hits.sort(Hit.WORST_FIRST.reversed());
+			return hits;
+		}
+		finally {
+			lock.readLock().unlock();
+			if (searches != null) {
+				searches.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onOwnerSaved(OwnerSavedEvent event) {
+		synchronized (this) {
+			if (savedWhileBuilding != null) {
+				savedWhileBuilding.add(event);
+				return;
+			}
+		}
+		lock.writeLock().lock();
+		try {
+			if (state != null) {
+				state.put(event.getOwnerId(), doc(event));
+				if (savedWhileRebuilding != null) {
+					savedWhileRebuilding.add(event);
+				}
+				else if (state.needsRebuild()) {
+					savedWhileRebuilding = new ArrayList<>();
+					State from = state;
+					int[] ids = Arrays.copyOf(from.ids, from.size);
+					char[][] docs = Arrays.copyOf(from.docs, from.size);
+					ForkJoinPool.commonPool().execute(() -> rebuild(from, ids, docs));
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Builds fresh posting lists from a copy of the owners' trigrams, replays the saves
+	 * made meanwhile and swaps them in, unless the index has been reloaded meanwhile. The
+	 * docs are never changed in place, so copying the array is enough.
+	 */
+	private void rebuild(State from, int[] ids, char[][] docs) {
+		State rebuilt;
+		try {
+			rebuilt = new State(ids, docs, ids.length);
+			rebuilt.setPostings(postings(docs, ids.length, ForkJoinPool.commonPool()));
+		}
+		catch (RuntimeException | InterruptedException | ExecutionException ex) {
+			if (ex instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			log.warn("Could not rebuild the owner search postings", ex);
+			rebuilt = null;
+		}
+		lock.writeLock().lock();
+		try {
+			if (rebuilt != null && state == from) {
+				for (OwnerSavedEvent event : savedWhileRebuilding) {
+					rebuilt.put(event.getOwnerId(), doc(event));
+				}
+				state = rebuilt;
+				rebuilds.incrementAndGet();
+			}
+			savedWhileRebuilding = null;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	long rebuildCount() {
+		return rebuilds.get();
+	}
+
+	void load() {
+		long start = System.nanoTime();
+		synchronized (this) {
+			savedWhileBuilding = new ArrayList<>();
+		}
+		try {
+			State built = build(owners.findAllSearchFields(), ForkJoinPool.commonPool());
+			lock.writeLock().lock();
+			try {
+				synchronized (this) {
+					for (OwnerSavedEvent event : savedWhileBuilding) {
+						built.put(event.getOwnerId(), doc(event));
+					}
+					savedWhileBuilding = null;
+				}
+				state = built;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			buildMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			log.info("Indexed {} owners for search in {} ms", built.size, buildMillis.get());
+		}
+		catch (RuntimeException | InterruptedException | ExecutionException ex) {
+			if (ex instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			log.warn("Could not build the owner search index", ex);
+		}
+		finally {
+			synchronized (this) {
+				savedWhileBuilding = null;
+			}
+		}
+	}
+
+	/**
+	 * Builds an index of the rows of owner id, first name, last name, city and telephone:
+	 * first the trigrams of each owner, then the posting lists, both in parallel on the
+	 * pool.
+	 */
+	static State build(List<Object[]> rows, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		int size = rows.size();
+		int[] ids = new int[size];
+		char[][] docs = new char[size][];
+		pool.submit(() -> IntStream.range(0, size).parallel().forEach(slot -> {
+			Object[] row = rows.get(slot);
+			ids[slot] = (Integer) row[0];
+			docs[slot] = doc((String) row[1], (String) row[2], (String) row[3], (String) row[4]);
+		})).get();
+		State state = new State(ids, docs, size);
+		state.setPostings(postings(docs, size, pool));
+		return state;
+	}
+
+	/**
+	 * Builds the posting lists of the docs in chunks: each chunk counts its postings per
+	 * trigram, the counts give each chunk its offset in every list, and each chunk then
+	 * fills in its part. The lists come out sorted by slot and of exactly their size.
+	 */
+	static int[][] postings(char[][] docs, int size, ForkJoinPool pool)
+			throws InterruptedException, ExecutionException {
+		int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, size / 4096));
+		int chunkSize = (size + chunks - 1) / Math.max(1, chunks);
+		int[][] counts = new int[chunks][TRIGRAMS];
+		pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			int[] count = counts[chunk];
+			char[] union = new char[64];
+			for (int slot = chunk * chunkSize; slot < Math.min(size, (chunk + 1) * chunkSize); slot++) {
+				union = union(docs[slot], union);
+				for (int i = 1; i <= union[0]; i++) {
+					count[union[i]]++;
+				}
+			}
+		})).get();
+		int[][] postings = new int[TRIGRAMS][];
+		for (int gram = 0; gram < TRIGRAMS; gram++) {
+			int total = 0;
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				int count = counts[chunk][gram];
+				counts[chunk][gram] = total;
+				total += count;
+			}
+			postings[gram] = (total == 0) ? NO_POSTINGS : new int[total];
+		}
+		pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			int[] offset = counts[chunk];
+			char[] union = new char[64];
+			for (int slot = chunk * chunkSize; slot < Math.min(size, (chunk + 1) * chunkSize); slot++) {
+				union = union(docs[slot], union);
+				for (int i = 1; i <= union[0]; i++) {
+					postings[union[i]][offset[union[i]]++] = slot;
+				}
+			}
+		})).get();
+		return postings;
+	}
+
+	/**
+	 * Counts the hits of the owners in the posting lists of the query's trigrams, from the
+	 * shortest list, within the posting budget, and keeps the owners with the most. The
+	 * lists are sorted by slot, so they are merged rather than hashed: the postings are
+	 * read in order and each owner's hits are counted as it is passed.
+	 */
+	private Candidates collect(State state, char[] grams) {
+		Integer[] order = new Integer[grams.length];
+		for (int i = 0; i < grams.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (first, second) -> Integer.compare(state.lengths[grams[first]], state.lengths[grams[second]]));
+		int[][] lists = new int[grams.length][];
+		int[] ends = new int[grams.length];
+		int count = 0;
+		int budget = postingBudget;
+		for (int i = 0; i < order.length; i++) {
+			char gram = grams[order[i]];
+			int length = state.lengths[gram];
+			if (length == 0) {
+				continue;
+			}
+			if (count > 0 && length > budget) {
+				// the lists left are longer still
+				break;
+			}
+			lists[count] = state.postings[gram];
+			ends[count] = Math.min(length, budget);
+			budget -= ends[count++];
+		}
+		// the slot at the head of each list, or Integer.MAX_VALUE once it is read
+		int[] heads = new int[count];
+		int[] next = new int[count];
+		for (int list = 0; list < count; list++) {
+			next[list] = lists[list][0];
+		}
+		Candidates candidates = new Candidates();
+		while (true) {
+			int slot = Integer.MAX_VALUE;
+			for (int list = 0; list < count; list++) {
+				slot = Math.min(slot, next[list]);
+			}
+			if (slot == Integer.MAX_VALUE) {
+				break;
+			}
+			int hits = 0;
+			for (int list = 0; list < count; list++) {
+				if (next[list] == slot) {
+					int head = ++heads[list];
+					next[list] = (head < ends[list]) ? lists[list][head] : Integer.MAX_VALUE;
+					hits++;
+				}
+			}
+			candidates.add(slot, hits);
+		}
+		candidates.keepMostHits(maximumCandidates, grams.length);
+		return candidates;
+	}
+
+	/**
+	 * Sums the weighted Jaccard similarity of the query's trigrams with each field's.
+	 */
+	static double score(char[] grams, char[] doc) {
+		double score = 0;
+		int from = FIELDS;
+		for (int field = 0; field < FIELDS; field++) {
+			int to = doc[field];
+			int shared = 0;
+			int i = 0;
+			int j = from;
+			while (i < grams.length && j < to) {
+				if (grams[i] < doc[j]) {
+					i++;
+				}
+				else if (grams[i] > doc[j]) {
+					j++;
+				}
+				else {
+					shared++;
+					i++;
+					j++;
+				}
+			}
+			if (shared > 0) {
+				score += WEIGHTS[field] * shared / (grams.length + (to - from) - shared);
+			}
+			from = to;
+		}
+		return score;
+	}
+
+	private static char[] doc(OwnerSavedEvent event) {
+		return doc(event.getFirstName(), event.getLastName(), event.getCity(), event.getTelephone());
+	}
+
+	/**
+	 * Returns the sorted trigrams of each field one after the other, preceded by the
+	 * index where each field's trigrams end.
+	 */
+	static char[] doc(String firstName, String lastName, String city, String telephone) {
+		char[][] fields = { trigrams(firstName), trigrams(lastName), trigrams(city), trigrams(telephone) };
+		int length = FIELDS;
+		for (char[] field : fields) {
+			length += field.length;
+		}
+		char[] doc = new char[length];
+		int end = FIELDS;
+		for (int field = 0; field < FIELDS; field++) {
+			System.arraycopy(fields[field], 0, doc, end, fields[field].length);
+			end += fields[field].length;
+			doc[field] = (char) end;
+		}
+		return doc;
+	}
+
+	/**
+	 * Returns the distinct trigrams of the text, sorted.
+	 */
+	static char[] trigrams(String text) {
+		if (text == null) {
+			return new char[0];
+		}
+		char[] grams = new char[text.length() * 2 + 2];
+		int count = 0;
+		int previous = 0;
+		int last = 0;
+		for (int i = 0; i <= text.length(); i++) {
+			int symbol = (i < text.length()) ? symbol(text.charAt(i)) : 0;
+			if (symbol == 0 && last == 0) {
+				continue;
+			}
+			if (last != 0) {
+				grams[count++] = (char) ((previous * SYMBOLS + last) * SYMBOLS + symbol);
+			}
+			previous = last;
+			last = symbol;
+		}
+		Arrays.sort(grams, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || grams[distinct - 1] != grams[i]) {
+				grams[distinct++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, distinct);
+	}
+
+	/**
+	 * Folds a char to 1-26 for letters, 27-36 for digits, 37 for other letters, and 0 for
+	 * the separators between words.
+	 */
+	static int symbol(char c) {
+		if (c >= 'a' && c <= 'z') {
+			return c - 'a' + 1;
+		}
+		if (c >= 'A' && c <= 'Z') {
+			return c - 'A' + 1;
+		}
+		if (c >= '0' && c <= '9') {
+			return c - '0' + 27;
+		}
+		if (c > 127 && Character.isLetter(c)) {
+			char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+			return (base < 128) ? symbol(base) : 37;
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes the distinct trigrams of all the doc's fields, sorted, into the buffer after
+	 * their count, growing the buffer if needed.
+	 */
+	static char[] union(char[] doc, char[] buffer) {
+		if (buffer.length < doc.length + 1) {
+			buffer = new char[doc.length + 1];
+		}
+		int count = 0;
+		char[] sorted = Arrays.copyOfRange(doc, FIELDS, doc.length);
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			if (count == 0 || buffer[count] != sorted[i]) {
+				buffer[++count] = sorted[i];
+			}
+		}
+		buffer[0] = (char) count;
+		return buffer;
+	}
+
+	/**
+	 * An owner found by a search and how well it matched, from 0 to the sum of the field
+	 * weights.
+	 */
+	public static final class Hit {
+
+		static final Comparator<Hit> WORST_FIRST = Comparator.comparingDouble(Hit::getScore)
+				.thenComparing(Hit::getOwnerId, Comparator.reverseOrder());
+
+		private final int ownerId;
+
+		private final double score;
+
+		Hit(int ownerId, double score) {
+			this.ownerId = ownerId;
+			this.score = score;
+		}
+
+		public int getOwnerId() {
+			return ownerId;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d (%.3f)", ownerId, score);
+		}
+
+	}
+
+	/**
+	 * The owners and their trigrams by slot, and the posting lists of slots by trigram,
+	 * where each list may have room left at its end. Changed under the write lock.
+	 */
+	static final class State {
+
+		int[] ids;
+
+		char[][] docs;
+
+		int size;
+
+		int[][] postings;
+
+		final int[] lengths = new int[TRIGRAMS];
+
+		final IntIntMap slots;
+
+		long postingCount;
+
+		long stale;
+
+		State(int[] ids, char[][] docs, int size) {
+			this.ids = ids;
+			this.docs = docs;
+			this.size = size;
+			this.slots = new IntIntMap(size);
+			for (int slot = 0; slot < size; slot++) {
+				slots.put(ids[slot], slot);
+			}
+		}
+
+		void setPostings(int[][] postings) {
+			this.postings = postings;
+			postingCount = 0;
+			stale = 0;
+			for (int gram = 0; gram < TRIGRAMS; gram++) {
+				lengths[gram] = postings[gram].length;
+				postingCount += lengths[gram];
+			}
+		}
+
+		/**
+		 * Indexes the owner with the trigrams of its fields in place of those it had.
+		 */
+		void put(int id, char[] doc) {
+			int slot = slots.get(id);
+			char[] old = null;
+			if (slot == IntIntMap.MISSING) {
+				slot = size++;
+				if (slot == ids.length) {
+					ids = Arrays.copyOf(ids, Math.max(16, slot * 2));
+					docs = Arrays.copyOf(docs, ids.length);
+				}
+				ids[slot] = id;
+				slots.put(id, slot);
+			}
+			else {
+				old = union(docs[slot], new char[0]);
+			}
+			docs[slot] = doc;
+			char[] added = union(doc, new char[0]);
+			int kept = 0;
+			for (int i = 1; i <= added[0]; i++) {
+				char gram = added[i];
+				if (old != null && Arrays.binarySearch(old, 1, old[0] + 1, gram) >= 0) {
+					kept++;
+					continue;
+				}
+				int[] list = postings[gram];
+				int at = Arrays.binarySearch(list, 0, lengths[gram], slot);
+				if (at >= 0) {
+					// stale since the owner lost the trigram, and now live again
+					stale--;
+					continue;
+				}
+				at = -at - 1;
+				if (lengths[gram] == list.length) {
+					list = Arrays.copyOf(list, Math.max(4, lengths[gram] * 2));
+					postings[gram] = list;
+				}
+				System.arraycopy(list, at, list, at + 1, lengths[gram] - at);
+				list[at] = slot;
+				lengths[gram]++;
+				postingCount++;
+			}
+			if (old != null) {
+				stale += old[0] - kept;
+			}
+		}
+
+		/**
+		 * Whether so many postings have gone stale that the lists should be rebuilt.
+		 */
+		boolean needsRebuild() {
+			return stale > 1024 && stale * 4 > postingCount;
+		}
+
+	}
+
+	/**
+	 * The slots hit by a search and their hits, in slot order.
+	 */
+	private static final class Candidates {
+
+		int[] slots = new int[64];
+
+		int[] hits = new int[64];
+
+		int size;
+
+		void add(int slot, int hitCount) {
+			if (size == slots.length) {
+				slots = Arrays.copyOf(slots, size * 2);
+				hits = Arrays.copyOf(hits, size * 2);
+			}
+			slots[size] = slot;
+			hits[size++] = hitCount;
+		}
+
+		/**
+		 * Keeps the slots with the most hits, breaking ties by slot. Hits are counted per
+		 * trigram of the query, so there are few distinct counts and the slots are bucketed
+		 * by count instead of sorted.
+		 */
+		void keepMostHits(int maximum, int mostHits) {
+			if (size <= maximum) {
+				return;
+			}
+			int[] slotsWithHits = new int[mostHits + 1];
+			for (int i = 0; i < size; i++) {
+				slotsWithHits[hits[i]]++;
+			}
+			int fewestHits = mostHits;
+			int kept = slotsWithHits[mostHits];
+			while (kept < maximum) {
+				kept += slotsWithHits[--fewestHits];
+			}
+			// only as many of the slots with the fewest hits kept as fit
+			int room = maximum - (kept - slotsWithHits[fewestHits]);
+			int to = 0;
+			for (int i = 0; i < size; i++) {
+				if (hits[i] > fewestHits || (hits[i] == fewestHits && room-- > 0)) {
+					slots[to] = slots[i];
+					hits[to++] = hits[i];
+				}
+			}
+			size = to;
+		}
+
+	}
+
+}
@@ -1,99 +1,274 @@
 package org.springframework.samples.petclinic.utility;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.samples.petclinic.owner.Pet;
 import org.springframework.samples.petclinic.owner.PetRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.text.SimpleDateFormat;
-	import java.util.Date;
-	import java.util.Map;
-	import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Read-through cache of {@link Pet}s in front of the {@link PetRepository}, backed by a
+ * {@link TimedCache} named {@code pets}.
+ * <p>
+ * {@link #save(Pet)} writes through: the saved pet replaces the cached copy once it is
+ * committed, so the expiry only limits how long unchanged pets stay cached. Saves of the
+ * same pet are serialized around the repository call, so the cache keeps the pet that
+ * was committed last. Within a surrounding transaction the pet is cached after the
+ * commit, unless another save of it overlapped and the last committed copy is unknown.
+ * Entries within {@code petclinic.cache.pets.refresh-ahead-in-millis} of expiry are
+ * reloaded in the background by the shared {@link CacheScheduler}. With
+ * {@code petclinic.cache.pets.off-heap-bytes} set, pets evicted for size are kept
+ * serialized outside the heap until they expire.
+ * <p>
+ * Ids that the repository has no pet for are remembered as absent for
+ * {@code petclinic.cache.pets.negative-expiry-in-millis}. With
+ * {@code petclinic.cache.pets.bloom-filter.expected-pets} set, the ids of all existing
+ * pets are also loaded into a Bloom filter at startup and every saved pet is added to
+ * it; requests for ids the filter has never seen are answered without a query. This is
+ * only correct while every pet is saved through this cache.
  *
  * @author Vivekananthan M
  */
 @Component
-public class PetTimedCache {
+public class PetTimedCache implements MeterBinder {
+
+	private static final long DEFAULT_EXPIRY_IN_MILLIS = 300000;
+	private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	private static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+	private static final int SAVE_LOCKS = 64;
 
-	private final static Logger log = LoggerFactory.getLogger(PetTimedCache.class);
 	private final PetRepository repository;
 
-	private Map<Integer, Long> timeMap = new ConcurrentHashMap<Integer, Long>();
-	private Map<Integer, Pet> actualMap = new ConcurrentHashMap<Integer, Pet>();
+	private final TimedCache<Integer, Pet> cache;
 
-	private long expiryInMillis = 10000;
-	private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("hh:mm:ss:SSS");
+	private final IntBloomFilter knownIds;
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final Object[] saveLocks = new Object[SAVE_LOCKS];
+
+	private final AtomicIntegerArray pendingSaves = new AtomicIntegerArray(SAVE_LOCKS);
 
-	@Autowired
 	public PetTimedCache(PetRepository repository) {
-		this.repository = repository;
-		initialize();
+		this(DEFAULT_EXPIRY_IN_MILLIS, repository);
 	}
 
 	public PetTimedCache(long expiryInMillis, PetRepository repository) {
-		this.expiryInMillis = expiryInMillis;
-		this.repository = repository;
-		initialize();
+		this(expiryInMillis, DEFAULT_MAXIMUM_SIZE, 0, 0, 0, 0, null, repository);
 	}
 
-	void initialize() {
-		new CleanerThread().start();
+	/**
+	 * @param refreshAheadInMillis how long before expiry a read schedules a reload, or
+	 * {@code 0} to disable refresh-ahead
+	 * @param offHeapBytes the size of the off-heap tier, or {@code 0} to disable it
+	 * @param negativeExpiryInMillis how long an unknown id is remembered as absent, or
+	 * {@code 0} to query it every time
+	 * @param expectedPets how many pets the Bloom filter of existing ids is sized for, or
+	 * {@code 0} to disable it
+	 * @param scheduler sweeps expired entries and runs refreshes, may be {@code null}
+	 */
+	@Autowired
+	public PetTimedCache(@Value("${petclinic.cache.pets.expiry-in-millis:300000}") long expiryInMillis,
+			@Value("${petclinic.cache.pets.maximum-size:10000}") long maximumSize,
+			@Value("${petclinic.cache.pets.refresh-ahead-in-millis:30000}") long refreshAheadInMillis,
+			@Value("${petclinic.cache.pets.off-heap-bytes:0}") long offHeapBytes,
+			@Value("${petclinic.cache.pets.negative-expiry-in-millis:10000}") long negativeExpiryInMillis,
+			@Value("${petclinic.cache.pets.bloom-filter.expected-pets:0}") long expectedPets,
+			CacheScheduler scheduler, PetRepository repository) {
+		this.repository = repository;
+		for (int i = 0; i < SAVE_LOCKS; i++) {
+			this.saveLocks[i] = new Object();
+		}
+		this.knownIds = (expectedPets > 0) ? loadKnownIds(expectedPets) : null;
+		this.cache = TimedCache.<Pet>intKeyedBuilder("pets", repository::findById)
+			.expireAfterWrite(expiryInMillis)
+			.maximumSize(maximumSize)
+			.refreshAhead(refreshAheadInMillis)
+			.scheduler(scheduler)
+			.offHeap(offHeapBytes)
+			.bulkLoader(this::findAll)
+			.expireNegativeAfter(negativeExpiryInMillis)
+			.build();
 	}
 
-	private Pet put(Pet pet) {
-		Integer key = pet.getId();
-		Date date = new Date();
-		timeMap.put(key, date.getTime());
-		log.info("Inserting : " + SIMPLE_DATE_FORMAT.format(date) + " : " + key + " : " + pet);
-		Pet returnVal = actualMap.put(key, pet);
-		return returnVal;
+	public Pet get(Integer key) {
+		if (isUnknown(key)) {
+			return null;
+		}
+		return cache.get(key);
 	}
 
-	public Pet get(Integer key) {
-		if(actualMap.containsKey(key)) {
-			log.info("cache hit");
-			return actualMap.get(key);
-		} else {
-			log.info("cache miss");
-			Pet pet = repository.findById(key);
-			if(pet != null) {
-				put(pet);
+	/**
+	 * Returns the pets with the given ids, loading all that are not cached with a single
+	 * query.
+	 * @return the pets found by id, in the order of the ids
+	 */
+	public Map<Integer, Pet> getAll(Collection<Integer> ids) {
+		if (knownIds == null) {
+			return cache.getAll(ids);
+		}
+		List<Integer> candidates = new ArrayList<>(ids.size());
+		for (Integer id : ids) {
+			if (!isUnknown(id)) {
+				candidates.add(id);
 			}
-			return pet;
 		}
+		return cache.getAll(candidates);
+	}
+
+	/**
+	 * Returns the ids of up to {@code limit} cached pets, most frequently requested first.
+	 */
+	public List<Integer> hottestIds(int limit) {
+		return cache.hottestKeys(limit);
 	}
 
 	public void save(Pet pet) {
-		repository.save(pet);
-	}
-
-	class CleanerThread extends Thread {
-		@Override
-		public void run() {
-			log.info("Initiating Cleaner Thread...");
-			while (true) {
-				cleanMap();
-				try {
-					Thread.sleep(expiryInMillis / 2);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			repository.save(pet);
+			Integer id = pet.getId();
+			if (id != null) {
+				remember(id);
+				saveInTransaction(id, pet);
 			}
+			return;
+		}
+		if (pet.getId() == null) {
+			// a new pet, which no other save can race with
+			repository.save(pet);
+			if (pet.getId() != null) {
+				remember(pet.getId());
+				cache.put(pet.getId(), pet);
+			}
+			return;
+		}
+		// the repository commits before it returns
+		synchronized (saveLocks[pet.getId() & (SAVE_LOCKS - 1)]) {
+			repository.save(pet);
+			remember(pet.getId());
+			cache.put(pet.getId(), pet);
+		}
+	}
+
+	public long hitCount() {
+		return cache.hitCount();
+	}
+
+	public long refreshCount() {
+		return cache.refreshCount();
+	}
+
+	public long offHeapHitCount() {
+		return cache.offHeapHitCount();
+	}
+
+	public long negativeHitCount() {
+		return cache.negativeHitCount();
+	}
+
+	/**
+	 * Returns how many reads the Bloom filter answered without consulting the cache.
+	 */
+	public long rejectedCount() {
+		return rejected.sum();
+	}
+
+	public long missCount() {
+		return cache.missCount();
+	}
+
+	public long collapsedLoadCount() {
+		return cache.collapsedLoadCount();
+	}
+
+	long size() {
+		return cache.size();
+	}
+
+	private IntBloomFilter loadKnownIds(long expectedPets) {
+		List<Integer> ids = repository.findAllIds();
+		IntBloomFilter filter = new IntBloomFilter(Math.max(expectedPets, ids.size()),
+				BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY);
+		for (Integer id : ids) {
+			filter.put(id);
 		}
+		return filter;
+	}
 
-		private void cleanMap() {
-			long currentTime = new Date().getTime();
-			for (Integer key : timeMap.keySet()) {
-				if (currentTime > (timeMap.get(key) + expiryInMillis)) {
-					Pet value = actualMap.remove(key);
-					timeMap.remove(key);
-					log.info("Removing : " + SIMPLE_DATE_FORMAT.format(new Date()) + " : " + key + " : " + value);
+	/**
+	 * Caches the pet once the surrounding transaction commits. Until then the cached copy
+	 * is dropped, so that no reader sees the uncommitted pet or caches the one it replaces.
+	 * When another transaction saved the same stripe of pets in the meantime the commit
+	 * order is not known, so the entry is dropped again rather than overwritten.
+	 */
+	private void saveInTransaction(Integer id, Pet pet) {
+		int stripe = id & (SAVE_LOCKS - 1);
+		pendingSaves.incrementAndGet(stripe);
+		cache.invalidate(id);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				synchronized (saveLocks[stripe]) {
+					if (pendingSaves.get(stripe) == 1) {
+						cache.put(id, pet);
+					}
+					else {
+						cache.invalidate(id);
+					}
 				}
 			}
+
+			@Override
+			public void afterCompletion(int status) {
+				pendingSaves.decrementAndGet(stripe);
+			}
+		});
+	}
+
+	private void remember(Integer id) {
+		if (knownIds != null) {
+			knownIds.put(id);
 		}
 	}
+
+	private boolean isUnknown(Integer id) {
+		if (knownIds != null && !knownIds.mightContain(id)) {
+			rejected.increment();
+			return true;
+		}
+		return false;
+	}
+
+	private Map<Integer, Pet> findAll(Set<Integer> ids) {
+		Map<Integer, Pet> pets = new HashMap<>();
+		for (Pet pet : repository.findByIdIn(ids)) {
+			pets.put(pet.getId(), pet);
+		}
+		return pets;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		cache.bindTo(registry);
+		if (knownIds != null) {
+			FunctionCounter.builder("petclinic.cache.gets", rejected, LongAdder::sum).tag("cache", "pets")
+					.tag("result", "rejected").description("Reads of ids the Bloom filter knows do not exist")
+					.register(registry);
+		}
+	}
+
 }
@@ -0,0 +1,206 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries the hottest entries of the {@link PetTimedCache} across restarts.
+ * <p>
+ * When the application context closes, the ids of the most frequently requested cached
+ * pets are written to a snapshot file. When it next starts, before the web server
+ * accepts requests, those pets are loaded back into the cache in batches, so the first
+ * minutes after a deploy do not all fall through to the database. Only ids are kept:
+ * the pets themselves are read fresh, as they may have changed while the application
+ * was down.
+ * <p>
+ * The snapshot is a small binary file: a header followed by the ids as {@code int}s. It
+ * is written to a temporary file and then moved into place, so a crash while writing
+ * leaves the previous snapshot intact. A missing, unreadable or failing snapshot only
+ * means a cold start.
+ */
+@Component
+public class PetTimedCacheSnapshot implements SmartLifecycle, MeterBinder {
+
+	private static final Logger log = LoggerFactory.getLogger(PetTimedCacheSnapshot.class);
+
+	private static final int MAGIC = 0x50455453;
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final PetTimedCache cache;
+
+	private final Path file;
+
+	private final int maximumSize;
+
+	private final int batchSize;
+
+	private final AtomicLong warmUpMillis = new AtomicLong();
+
+	private final AtomicLong warmedUpPets = new AtomicLong();
+
+	private volatile boolean running;
+
+	/**
+	 * @param file where the snapshot is kept, or empty to disable snapshots
+	 * @param maximumSize how many of the hottest pet ids are written
+	 * @param batchSize how many pets are loaded per query during warm-up, at least one
+	 */
+	@Autowired
+	public PetTimedCacheSnapshot(PetTimedCache cache,
+			@Value("${petclinic.cache.pets.snapshot.file:}") String file,
+			@Value("${petclinic.cache.pets.snapshot.maximum-size:5000}") int maximumSize,
+			@Value("${petclinic.cache.pets.snapshot.batch-size:500}") int batchSize) {
+		if (maximumSize < 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("snapshot size must not be negative and batch size must be positive");
+		}
+		this.cache = cache;
+		this.file = file.isEmpty() ? null : Paths.get(file);
+		this.maximumSize = maximumSize;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void start() {
+		if (file != null && Files.isReadable(file)) {
+			warmUp();
+		}
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		if (running && file != null) {
+			write();
+		}
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Starts after the {@link CacheScheduler} and before the web server, and so also
+	 * stops after the web server, when no more requests can touch the cache.
+	 */
+	@Override
+	public int getPhase() {
+		return 1;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		TimeGauge.builder("petclinic.cache.warmup.duration", warmUpMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+				.tag("cache", "pets").description("Time spent loading the snapshot at startup").register(registry);
+		FunctionCounter.builder("petclinic.cache.warmup.loaded", warmedUpPets, AtomicLong::get).tag("cache", "pets")
+				.description("Entries loaded from the snapshot at startup").register(registry);
+	}
+
+	long warmUpMillis() {
+		return warmUpMillis.get();
+	}
+
+	long warmedUpPets() {
+		return warmedUpPets.get();
+	}
+
+	private void warmUp() {
+		long start = System.nanoTime();
+		try {
+			List<Integer> ids = read();
+			for (int from = 0; from < ids.size(); from += batchSize) {
+				List<Integer> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+				warmedUpPets.addAndGet(cache.getAll(batch).size());
+			}
+		}
+		catch (IOException | RuntimeException ex) {
+			log.warn("Could not warm up the pet cache from {}, starting cold", file, ex);
+		}
+		finally {
+			warmUpMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		log.info("Warmed up the pet cache with {} pets in {} ms", warmedUpPets.get(), warmUpMillis.get());
+	}
+
+	private List<Integer> read() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				throw new IOException("not a pet cache snapshot");
+			}
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("corrupt pet cache snapshot");
+			}
+			// a snapshot written with a larger maximum size is cut to the hottest ids
+			int size = Math.min(count, maximumSize);
+			List<Integer> ids = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				ids.add(in.readInt());
+			}
+			return ids;
+		}
+	}
+
+	private void write() {
+		List<Integer> ids = cache.hottestIds(maximumSize);
+		try {
+			Path directory = file.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(FORMAT_VERSION);
+					out.writeInt(ids.size());
+					for (int id : ids) {
+						out.writeInt(id);
+					}
+				}
+				move(temporary, file);
+			}
+			finally {
+				Files.deleteIfExists(temporary);
+			}
+			log.info("Wrote {} pet ids to {}", ids.size(), file);
+		}
+		catch (IOException ex) {
+			log.warn("Could not write the pet cache snapshot to {}", file, ex);
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
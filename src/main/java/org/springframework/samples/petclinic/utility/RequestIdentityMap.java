@@ -0,0 +1,155 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.samples.petclinic.model.BaseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A unit of work that sits in front of the repositories for the duration of one web
+ * request, so that the same owner, pet or visit is loaded at most once per request and
+ * every lookup of it within the request returns the same instance.
+ * <p>
+ * The loaded entities are kept in one {@link IdentityMap} per entity type, stored as an
+ * attribute of the current request and discarded with it. Outside of a web request, for
+ * example in a batch job or a test without a request, every lookup goes straight to the
+ * loader. Entities that have no id yet are handed back but not remembered.
+ * <p>
+ * When a request ends, the number of loads it was spared is recorded in the
+ * {@code petclinic.identity-map.deduplicated} distribution summary.
+ */
+@Component
+public class RequestIdentityMap implements MeterBinder {
+
+	private static final String ATTRIBUTE = RequestIdentityMap.class.getName();
+
+	private volatile DistributionSummary deduplicatedLoads;
+
+	/**
+	 * Returns the entity of the given type and id that was already loaded during this
+	 * request, or loads it and remembers it for the rest of the request.
+	 * @param loader reads the entity from its repository, returning {@code null} if there
+	 * is none
+	 */
+	public <E extends BaseEntity> E find(Class<E> type, Integer id, Function<Integer, E> loader) {
+		UnitOfWork unitOfWork = currentUnitOfWork();
+		if (unitOfWork == null) {
+			return loader.apply(id);
+		}
+		IdentityMap<E> entities = unitOfWork.entities(type);
+		E entity = entities.get(id);
+		if (entity != null) {
+			unitOfWork.deduplicated++;
+			return entity;
+		}
+		entity = loader.apply(id);
+		if (entity != null && !entity.isNew()) {
+			entities.add(entity);
+		}
+		return entity;
+	}
+
+	/**
+	 * Swaps each of the freshly loaded entities for the instance already loaded during
+	 * this request, if there is one, and remembers the others.
+	 * @return the entities in the order they were given
+	 */
+	public <E extends BaseEntity> List<E> merge(Class<E> type, Collection<E> loaded) {
+		UnitOfWork unitOfWork = currentUnitOfWork();
+		if (unitOfWork == null) {
+			return new ArrayList<>(loaded);
+		}
+		IdentityMap<E> entities = unitOfWork.entities(type);
+		List<E> merged = new ArrayList<>(loaded.size());
+		for (E entity : loaded) {
+			E known = entity.isNew() ? null : entities.get(entity.getId());
+			if (known != null) {
+				unitOfWork.deduplicated++;
+				merged.add(known);
+			}
+			else {
+				if (!entity.isNew()) {
+					entities.add(entity);
+				}
+				merged.add(entity);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Makes the entity the one returned for its id for the rest of this request, for
+	 * example after it has been saved.
+	 */
+	public <E extends BaseEntity> void register(Class<E> type, E entity) {
+		UnitOfWork unitOfWork = currentUnitOfWork();
+		if (unitOfWork != null && !entity.isNew()) {
+			unitOfWork.entities(type).add(entity);
+		}
+	}
+
+	/**
+	 * Returns how many loads have been answered from memory so far in this request.
+	 */
+	public int deduplicatedLoads() {
+		UnitOfWork unitOfWork = currentUnitOfWork();
+		return (unitOfWork == null) ? 0 : unitOfWork.deduplicated;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.deduplicatedLoads = DistributionSummary.builder("petclinic.identity-map.deduplicated")
+				.description("Repository loads per request answered from the request's identity map")
+				.register(registry);
+	}
+
+	private UnitOfWork currentUnitOfWork() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes == null) {
+			return null;
+		}
+		UnitOfWork unitOfWork = (UnitOfWork) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+		if (unitOfWork == null) {
+			UnitOfWork created = new UnitOfWork();
+			attributes.setAttribute(ATTRIBUTE, created, RequestAttributes.SCOPE_REQUEST);
+			attributes.registerDestructionCallback(ATTRIBUTE, () -> completed(created),
+					RequestAttributes.SCOPE_REQUEST);
+			unitOfWork = created;
+		}
+		return unitOfWork;
+	}
+
+	private void completed(UnitOfWork unitOfWork) {
+		DistributionSummary deduplicatedLoads = this.deduplicatedLoads;
+		if (deduplicatedLoads != null) {
+			deduplicatedLoads.record(unitOfWork.deduplicated);
+		}
+	}
+
+	/**
+	 * The entities loaded during one request. Only ever touched by the request's thread.
+	 */
+	private static final class UnitOfWork {
+
+		private final Map<Class<?>, IdentityMap<?>> entitiesByType = new HashMap<>();
+
+		private int deduplicated;
+
+		@SuppressWarnings("unchecked")
+		<E extends BaseEntity> IdentityMap<E> entities(Class<E> type) {
+			return (IdentityMap<E>) entitiesByType.computeIfAbsent(type, key -> new IdentityMap<>());
+		}
+
+	}
+
+}
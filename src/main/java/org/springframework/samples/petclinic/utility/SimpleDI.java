@@ -1,23 +1,175 @@
 package org.springframework.samples.petclinic.utility;
 
-import org.springframework.samples.petclinic.owner.PetRepository;
-
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
  * this simple class shows the main idea behind a Dependency Injection library
  */
 public abstract class SimpleDI {
 
+	/**
+	 * Returns the container shared by the whole application.
+	 * @see SimpleDIContainer
+	 */
 	public static SimpleDI getDIContainer() throws Exception {
-		// todo return the singleton instance of your implementation of dependency injection container
-		throw new Exception("not implemented");
+		return SimpleDIContainer.INSTANCE;
 	}
 
 	public abstract void provideByInstance(Class<?> typeClass, Object instanceOfType);
 
-	public abstract void provideByAConstructorFunction(Class<?> typeClass, Callable<Object> providerFunction);
+	/**
+	 * Provides the type by calling the function, once per lookup.
+	 */
+	public void provideByAConstructorFunction(Class<?> typeClass, Callable<Object> providerFunction) {
+		provideByAConstructorFunction(typeClass, providerFunction, Scope.PROTOTYPE);
+	}
+
+	/**
+	 * Provides the type by calling the function as often as the scope asks for.
+	 */
+	public abstract void provideByAConstructorFunction(Class<?> typeClass, Callable<Object> providerFunction,
+			Scope scope);
+
+	/**
+	 * Provides the type by calling the constructor of the implementation class as often
+	 * as the scope asks for, with its parameters resolved from the container. Types that
+	 * are asked for without being provided at all are wired this way as singletons.
+	 */
+	public abstract void provideByConstructor(Class<?> typeClass, Class<?> implementationClass, Scope scope);
+
+	/**
+	 * Provides the type by calling the factory with an instance of each dependency, in
+	 * order, as often as the scope asks for. This is how a {@link WiringIndex} registers
+	 * the classes it was generated for.
+	 */
+	public abstract void provideByFactory(Class<?> typeClass, Class<?>[] dependencies,
+			Function<Object[], Object> factory, Scope scope);
+
+	/**
+	 * Wires the classes of every {@link WiringIndex} listed as a service on the class
+	 * loader, and returns how many indexes there were.
+	 */
+	public int loadWiringIndexes(ClassLoader classLoader) {
+		int loaded = 0;
+		for (WiringIndex index : ServiceLoader.load(WiringIndex.class, classLoader)) {
+			index.wire(this);
+			loaded++;
+		}
+		return loaded;
+	}
+
+	public int loadWiringIndexes() {
+		return loadWiringIndexes(SimpleDI.class.getClassLoader());
+	}
 
 	public abstract Object getInstanceOf(Class<?> requiredType) throws Exception;
+
+	/**
+	 * Creates every singleton that has not been created yet, in waves: each wave holds the
+	 * singletons whose dependencies were all created in earlier waves, and is created in
+	 * parallel on the pool.
+	 */
+	public abstract StartupReport initializeSingletons(ForkJoinPool pool) throws Exception;
+
+	public StartupReport initializeSingletons() throws Exception {
+		return initializeSingletons(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * How long an instance created by the container is handed out for.
+	 */
+	public enum Scope {
+
+		/**
+		 * One instance for the whole container, created on first use.
+		 */
+		SINGLETON,
+
+		/**
+		 * A new instance for every lookup.
+		 */
+		PROTOTYPE,
+
+		/**
+		 * One instance per thread, created on the thread's first use.
+		 */
+		THREAD
+
+	}
+
+	/**
+	 * What {@link #initializeSingletons} did: how long each singleton took to create, and
+	 * the chain of dependent singletons whose creation times add up to the most, which
+	 * bounds how fast startup can be however many threads are used.
+	 */
+	public static final class StartupReport {
+
+		private final Map<Class<?>, Duration> initTimes;
+
+		private final List<Class<?>> criticalPath;
+
+		private final Duration criticalPathLength;
+
+		private final int waves;
+
+		private final Duration elapsed;
+
+		public StartupReport(Map<Class<?>, Duration> initTimes, List<Class<?>> criticalPath,
+				Duration criticalPathLength, int waves, Duration elapsed) {
+			this.initTimes = Collections.unmodifiableMap(initTimes);
+			this.criticalPath = Collections.unmodifiableList(criticalPath);
+			this.criticalPathLength = criticalPathLength;
+			this.waves = waves;
+			this.elapsed = elapsed;
+		}
+
+		/**
+		 * The time each singleton took to create, not counting its dependencies, in the
+		 * order they were created.
+		 */
+		public Map<Class<?>, Duration> getInitTimes() {
+			return initTimes;
+		}
+
+		/**
+		 * The critical path, from the singleton with no dependencies to the one that
+		 * finished last.
+		 */
+		public List<Class<?>> getCriticalPath() {
+			return criticalPath;
+		}
+
+		public Duration getCriticalPathLength() {
+			return criticalPathLength;
+		}
+
+		public int getWaves() {
+			return waves;
+		}
+
+		public Duration getElapsed() {
+			return elapsed;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("Initialized %d singletons in %d waves in %d ms, critical path %d ms:%n",
+					initTimes.size(), waves, elapsed.toMillis(), criticalPathLength.toMillis()));
+			for (Map.Entry<Class<?>, Duration> entry : initTimes.entrySet()) {
+				report.append(String.format("  %8.3f ms %s%s%n", entry.getValue().toNanos() / 1e6,
+						entry.getKey().getName(), criticalPath.contains(entry.getKey()) ? " *" : ""));
+			}
+			return report.toString();
+		}
+
+	}
+
 }
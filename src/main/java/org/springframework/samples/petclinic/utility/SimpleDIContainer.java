@@ -0,0 +1,497 @@
+package org.springframework.samples.petclinic.utility;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * The {@link SimpleDI} container returned by {@link SimpleDI#getDIContainer()}.
+ * <p>
+ * Every type maps to a {@link Provider} in a {@link ConcurrentHashMap}, so a lookup is a
+ * single lock-free map read followed by the provider. A provider is a factory that
+ * creates an instance, wrapped according to its {@link Scope}:
+ * <ul>
+ * <li>{@link Scope#PROTOTYPE} calls the factory on every lookup;
+ * <li>{@link Scope#SINGLETON} calls it once and publishes the instance in a volatile
+ * field. Concurrent first callers are serialised on that provider alone, never on a
+ * container-wide lock, and every later lookup is a plain volatile read;
+ * <li>{@link Scope#THREAD} keeps one instance per thread in a {@link ThreadLocal}.
+ * </ul>
+ * Constructor factories resolve their parameters from the container and call the
+ * constructor through a {@link MethodHandle} prepared at registration, instead of through
+ * reflection. Types that were not registered are wired through their single public
+ * constructor, or else the public no-argument one, as singletons.
+ * <p>
+ * The constructor parameters of the registered types form a dependency graph. A
+ * registration that would close a cycle in it is rejected straight away, naming the
+ * cycle, rather than failing on first use. {@link #initializeSingletons} walks the graph
+ * to create the singletons ahead of time in topological waves, each wave in parallel.
+ * Function providers do not declare what they depend on, so they count as having no
+ * dependencies, unlike the factories registered by a generated {@link WiringIndex}.
+ */
+final class SimpleDIContainer extends SimpleDI {
+
+	static final SimpleDIContainer INSTANCE = new SimpleDIContainer();
+
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+	private final ConcurrentHashMap<Class<?>, Provider> providers = new ConcurrentHashMap<>();
+
+	@Override
+	public void provideByInstance(Class<?> typeClass, Object instanceOfType) {
+		if (!typeClass.isInstance(instanceOfType)) {
+			throw new IllegalArgumentException(instanceOfType + " is not an instance of " + typeClass.getName());
+		}
+		providers.put(typeClass, () -> instanceOfType);
+	}
+
+	@Override
+	public void provideByAConstructorFunction(Class<?> typeClass, Callable<Object> providerFunction, Scope scope) {
+		register(typeClass, scoped(typeClass, providerFunction::call, scope));
+	}
+
+	@Override
+	public void provideByConstructor(Class<?> typeClass, Class<?> implementationClass, Scope scope) {
+		if (!typeClass.isAssignableFrom(implementationClass)) {
+			throw new IllegalArgumentException(implementationClass.getName() + " is not a " + typeClass.getName());
+		}
+		register(typeClass, scoped(typeClass, new ConstructorFactory(implementationClass), scope));
+	}
+
+	@Override
+	public void provideByFactory(Class<?> typeClass, Class<?>[] dependencies, Function<Object[], Object> factory,
+			Scope scope) {
+		register(typeClass, scoped(typeClass, new IndexedFactory(dependencies, factory), scope));
+	}
+
+	@Override
+	public Object getInstanceOf(Class<?> requiredType) throws Exception {
+		return providerFor(requiredType).get();
+	}
+
+	@Override
+	public StartupReport initializeSingletons(ForkJoinPool pool) throws Exception {
+		long start = System.nanoTime();
+		Map<Class<?>, Provider> graph = reachableProviders();
+		Map<Class<?>, Integer> levels = new HashMap<>();
+		TreeMap<Integer, List<Class<?>>> waves = new TreeMap<>();
+		for (Map.Entry<Class<?>, Provider> node : graph.entrySet()) {
+			int level = level(node.getKey(), graph, levels, new HashSet<>());
+			Provider provider = node.getValue();
+			if (provider instanceof Singleton && !((Singleton) provider).isCreated()) {
+				waves.computeIfAbsent(level, key -> new ArrayList<>()).add(node.getKey());
+			}
+		}
+		Map<Class<?>, Long> nanos = new ConcurrentHashMap<>();
+		Map<Class<?>, Duration> initTimes = new LinkedHashMap<>();
+		for (List<Class<?>> wave : waves.values()) {
+			List<Callable<Object>> tasks = new ArrayList<>(wave.size());
+			for (Class<?> type : wave) {
+				tasks.add(() -> {
+					long created = System.nanoTime();
+					Object instance = graph.get(type).get();
+					nanos.put(type, System.nanoTime() - created);
+					return instance;
+				});
+			}
+			for (Future<Object> future : pool.invokeAll(tasks)) {
+				try {
+					future.get();
+				}
+				catch (ExecutionException ex) {
+					throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+				}
+			}
+			for (Class<?> type : wave) {
+				initTimes.put(type, Duration.ofNanos(nanos.get(type)));
+			}
+		}
+		return criticalPath(graph, levels, initTimes, waves.size(), Duration.ofNanos(System.nanoTime() - start));
+	}
+
+	private Provider providerFor(Class<?> requiredType) {
+		Provider provider = providers.get(requiredType);
+		if (provider == null) {
+			provider = providers.computeIfAbsent(requiredType, type -> {
+				ConstructorFactory factory = new ConstructorFactory(type);
+				checkForCycle(type, factory.dependencies());
+				return new Singleton(type, factory);
+			});
+		}
+		return provider;
+	}
+
+	private Object[] argumentsFor(Class<?>[] dependencies) throws Exception {
+		Object[] arguments = new Object[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			arguments[i] = getInstanceOf(dependencies[i]);
+		}
+		return arguments;
+	}
+
+	private void register(Class<?> type, Provider provider) {
+		checkForCycle(type, provider.dependencies());
+		providers.put(type, provider);
+	}
+
+	/**
+	 * Searches the dependency graph from the new provider's dependencies for the type it
+	 * provides, and fails with the cycle if it is found.
+	 */
+	private void checkForCycle(Class<?> type, Class<?>[] dependencies) {
+		Set<Class<?>> visited = new HashSet<>();
+		Deque<Class<?>> path = new ArrayDeque<>();
+		path.add(type);
+		for (Class<?> dependency : dependencies) {
+			if (reaches(dependency, type, visited, path)) {
+				StringBuilder cycle = new StringBuilder();
+				for (Class<?> step : path) {
+					cycle.append(step.getSimpleName()).append(" -> ");
+				}
+				throw new IllegalStateException("Circular dependency: " + cycle + type.getSimpleName());
+			}
+		}
+	}
+
+	private boolean reaches(Class<?> from, Class<?> target, Set<Class<?>> visited, Deque<Class<?>> path) {
+		if (from == target) {
+			return true;
+		}
+		if (!visited.add(from)) {
+			return false;
+		}
+		path.addLast(from);
+		for (Class<?> dependency : dependenciesOf(from)) {
+			if (reaches(dependency, target, visited, path)) {
+				return true;
+			}
+		}
+		path.removeLast();
+		return false;
+	}
+
+	/**
+	 * Returns the dependencies of the registered provider of the type, or else of the
+	 * constructor it would be wired through, or else none.
+	 */
+	private Class<?>[] dependenciesOf(Class<?> type) {
+		Provider provider = providers.get(type);
+		if (provider != null) {
+			return provider.dependencies();
+		}
+		try {
+			return injectableConstructor(type).getParameterTypes();
+		}
+		catch (IllegalStateException ex) {
+			return Provider.NO_DEPENDENCIES;
+		}
+	}
+
+	/**
+	 * Returns the provider of every registered type and of everything they depend on,
+	 * wiring unregistered dependencies as singletons on the way.
+	 */
+	private Map<Class<?>, Provider> reachableProviders() {
+		Map<Class<?>, Provider> graph = new LinkedHashMap<>();
+		Deque<Class<?>> pending = new ArrayDeque<>(providers.keySet());
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.pop();
+			if (!graph.containsKey(type)) {
+				Provider provider = providerFor(type);
+				graph.put(type, provider);
+				Collections.addAll(pending, provider.dependencies());
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Returns 0 for a type without dependencies, and otherwise one more than the highest
+	 * level among its dependencies.
+	 */
+	private static int level(Class<?> type, Map<Class<?>, Provider> graph, Map<Class<?>, Integer> levels,
+			Set<Class<?>> visiting) {
+		Integer known = levels.get(type);
+		if (known != null) {
+			return known;
+		}
+		if (!visiting.add(type)) {
+			throw new IllegalStateException("Circular dependency on " + type.getName());
+		}
+		int level = 0;
+		for (Class<?> dependency : graph.get(type).dependencies()) {
+			level = Math.max(level, level(dependency, graph, levels, visiting) + 1);
+		}
+		visiting.remove(type);
+		levels.put(type, level);
+		return level;
+	}
+
+	/**
+	 * Finds the chain of dependencies whose creation times add up to the most. Types are
+	 * visited by level, so every dependency is done before the types that depend on it.
+	 */
+	private static StartupReport criticalPath(Map<Class<?>, Provider> graph, Map<Class<?>, Integer> levels,
+			Map<Class<?>, Duration> initTimes, int waves, Duration elapsed) {
+		List<Class<?>> ordered = new ArrayList<>(graph.keySet());
+		ordered.sort((first, second) -> Integer.compare(levels.get(first), levels.get(second)));
+		Map<Class<?>, Long> longest = new HashMap<>();
+		Map<Class<?>, Class<?>> previous = new HashMap<>();
+		Class<?> last = null;
+		for (Class<?> type : ordered) {
+			long length = 0;
+			for (Class<?> dependency : graph.get(type).dependencies()) {
+				if (longest.get(dependency) > length) {
+					length = longest.get(dependency);
+					previous.put(type, dependency);
+				}
+			}
+			length += initTimes.getOrDefault(type, Duration.ZERO).toNanos();
+			longest.put(type, length);
+			if (last == null || length > longest.get(last)) {
+				last = type;
+			}
+		}
+		List<Class<?>> path = new ArrayList<>();
+		for (Class<?> step = last; step != null; step = previous.get(step)) {
+			if (initTimes.containsKey(step)) {
+				path.add(0, step);
+			}
+		}
+		Duration length = Duration.ofNanos((last == null) ? 0 : longest.get(last));
+		return new StartupReport(initTimes, path, length, waves, elapsed);
+	}
+
+	private static Provider scoped(Class<?> type, Provider factory, Scope scope) {
+		switch (scope) {
+		case SINGLETON:
+			return new Singleton(type, factory);
+		case THREAD:
+			return new ThreadScoped(factory);
+		default:
+			return factory;
+		}
+	}
+
+	/**
+	 * Prepares a handle that calls the constructor with its arguments in an
+	 * {@code Object[]} and returns the new instance as an {@code Object}, so that it can be
+	 * called with {@link MethodHandle#invokeExact} whatever the constructor's signature.
+	 */
+	static MethodHandle factoryFor(Constructor<?> constructor) {
+		try {
+			constructor.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(constructor)
+					.asSpreader(Object[].class, constructor.getParameterCount()).asType(FACTORY_TYPE);
+		}
+		catch (IllegalAccessException | RuntimeException ex) {
+			throw new IllegalStateException("Cannot call " + constructor, ex);
+		}
+	}
+
+	static Constructor<?> injectableConstructor(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			throw new IllegalStateException("No provider for " + type.getName());
+		}
+		Constructor<?>[] constructors = type.getConstructors();
+		if (constructors.length == 1) {
+			return constructors[0];
+		}
+		try {
+			return type.getConstructor();
+		}
+		catch (NoSuchMethodException ex) {
+			throw new IllegalStateException(
+					type.getName() + " needs a single public constructor or a public no-argument one", ex);
+		}
+	}
+
+	@FunctionalInterface
+	interface Provider {
+
+		Class<?>[] NO_DEPENDENCIES = new Class<?>[0];
+
+		Object get() throws Exception;
+
+		/**
+		 * The types this provider looks up in the container to create an instance.
+		 */
+		default Class<?>[] dependencies() {
+			return NO_DEPENDENCIES;
+		}
+
+	}
+
+	/**
+	 * Creates a new instance through the constructor on every call.
+	 */
+	private final class ConstructorFactory implements Provider {
+
+		private final Class<?>[] dependencies;
+
+		private final MethodHandle factory;
+
+		ConstructorFactory(Class<?> type) {
+			Constructor<?> constructor = injectableConstructor(type);
+			this.dependencies = constructor.getParameterTypes();
+			this.factory = factoryFor(constructor);
+		}
+
+		@Override
+		public Class<?>[] dependencies() {
+			return dependencies;
+		}
+
+		@Override
+		public Object get() throws Exception {
+			Object[] arguments = argumentsFor(dependencies);
+			try {
+				return (Object) factory.invokeExact(arguments);
+			}
+			catch (Exception | Error ex) {
+				throw ex;
+			}
+			catch (Throwable ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+	}
+
+	/**
+	 * Creates a new instance through a factory generated at compile time on every call.
+	 */
+	private final class IndexedFactory implements Provider {
+
+		private final Class<?>[] dependencies;
+
+		private final Function<Object[], Object> factory;
+
+		IndexedFactory(Class<?>[] dependencies, Function<Object[], Object> factory) {
+			this.dependencies = dependencies;
+			this.factory = factory;
+		}
+
+		@Override
+		public Class<?>[] dependencies() {
+			return dependencies;
+		}
+
+		@Override
+		public Object get() throws Exception {
+			return factory.apply(argumentsFor(dependencies));
+		}
+
+	}
+
+	/**
+	 * Calls its factory the first time it is asked for, with double-checked locking on the
+	 * provider itself, so that only first callers of the same type ever wait for each
+	 * other. A thread that asks for the type again while creating it has found a
+	 * circular dependency.
+	 */
+	private static final class Singleton implements Provider {
+
+		private final Class<?> type;
+
+		private final Provider factory;
+
+		private volatile Object instance;
+
+		private boolean creating;
+
+		Singleton(Class<?> type, Provider factory) {
+			this.type = type;
+			this.factory = factory;
+		}
+
+		@Override
+		public Class<?>[] dependencies() {
+			return factory.dependencies();
+		}
+
+		boolean isCreated() {
+			return instance != null;
+		}
+
+		@Override
+		public Object get() throws Exception {
+			Object instance = this.instance;
+			if (instance != null) {
+				return instance;
+			}
+			synchronized (this) {
+				if (this.instance == null) {
+					if (creating) {
+						throw new IllegalStateException("Circular dependency on " + type.getName());
+					}
+					creating = true;
+					try {
+						Object created = factory.get();
+						if (created == null) {
+							throw new IllegalStateException("The provider of " + type.getName() + " returned null");
+						}
+						this.instance = created;
+					}
+					finally {
+						creating = false;
+					}
+				}
+				return this.instance;
+			}
+		}
+
+	}
+
+	/**
+	 * Calls its factory once per thread. Each thread only ever reads its own value, so
+	 * lookups take no lock at all.
+	 */
+	private static final class ThreadScoped implements Provider {
+
+		private final Provider factory;
+
+		private final ThreadLocal<Object> instances = new ThreadLocal<>();
+
+		ThreadScoped(Provider factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public Class<?>[] dependencies() {
+			return factory.dependencies();
+		}
+
+		@Override
+		public Object get() throws Exception {
+			Object instance = instances.get();
+			if (instance == null) {
+				instance = factory.get();
+				instances.set(instance);
+			}
+			return instance;
+		}
+
+	}
+
+}
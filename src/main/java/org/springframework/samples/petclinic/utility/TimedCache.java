@@ -0,0 +1,655 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A read-through cache that loads missing values with a loader function, typically a
+ * repository finder.
+ * <p>
+ * Entries expire a fixed time after they were written and the cache is bounded in size;
+ * see {@link CacheStore} for how expired and excess entries are evicted. Concurrent
+ * misses for the same key are collapsed into a single call to the loader that every
+ * caller waits on. A failed load is rethrown to all of those callers and nothing is
+ * cached, so the next request tries again.
+ * <p>
+ * Values written to the source of truth should be passed to {@link #put}, which replaces
+ * the cached copy immediately. Loads are stamped with the store version they started
+ * at, so a load that read the old value cannot overwrite a newer write.
+ * <p>
+ * When a {@link CacheScheduler} is configured, a read that finds an entry close to
+ * expiry returns it but also schedules a background reload, and expired entries are
+ * swept periodically.
+ * <p>
+ * Optionally, entries evicted to stay within the maximum size are moved to an
+ * {@link OffHeapStore} instead of being dropped. They are kept there serialized, outside
+ * the Java heap, until they expire or are overwritten by newer evictions, and each read
+ * that finds one there returns a freshly deserialized copy. Values must then be
+ * {@link java.io.Serializable}.
+ * <p>
+ * A load that finds no value is not cached as such, but when a negative expiry is
+ * configured the key is remembered as absent for that (typically short) time, so that
+ * repeated requests for a key that does not exist do not each reach the loader. Keys
+ * remembered as absent are kept in a separate store, so they never displace values.
+ * Statistics are published through Micrometer under
+ * {@code petclinic.cache.*}, tagged with the cache name.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of cached values
+ */
+public class TimedCache<K, V> implements MeterBinder {
+
+	private static final Logger log = LoggerFactory.getLogger(TimedCache.class);
+
+	private final String name;
+
+	private final Function<? super K, ? extends V> loader;
+
+	private final Function<? super Set<K>, ? extends Map<K, ? extends V>> bulkLoader;
+
+	private final CacheStore<K, V> store;
+
+	private final OffHeapStore<K, V> offHeap;
+
+	private final CacheStore<K, Boolean> absentKeys;
+
+	private final ConcurrentMap<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+
+	private final Executor refreshExecutor;
+
+	private final long refreshAheadInNanos;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder refreshes = new LongAdder();
+
+	private final LongAdder offHeapHits = new LongAdder();
+
+	private final LongAdder negativeHits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder collapsedLoads = new LongAdder();
+
+	private final LongAdder loadSuccesses = new LongAdder();
+
+	private final LongAdder loadFailures = new LongAdder();
+
+	private volatile Timer loadTimer;
+
+	private TimedCache(Builder<K, V> builder) {
+		this.name = builder.name;
+		this.loader = builder.loader;
+		this.bulkLoader = builder.bulkLoader;
+		this.offHeap = (builder.offHeapBytes > 0) ? new OffHeapStore<>(builder.offHeapBytes, System::nanoTime) : null;
+		this.absentKeys = (builder.negativeExpiryInMillis > 0) ? new CacheStore<>(newIndex(builder.intKeys),
+				builder.maximumSize, value -> 1, builder.negativeExpiryInMillis, System::nanoTime, node -> {
+				}) : null;
+		this.store = new CacheStore<>(newIndex(builder.intKeys), builder.maximumSize, value -> 1,
+				builder.expiryInMillis, System::nanoTime, this::demote);
+		this.refreshAheadInNanos = TimeUnit.MILLISECONDS.toNanos(builder.refreshAheadInMillis);
+		this.refreshExecutor = (builder.scheduler != null && builder.refreshAheadInMillis > 0)
+				? builder.scheduler.refreshExecutor() : null;
+		if (builder.scheduler != null) {
+			builder.scheduler.register(this);
+		}
+	}
+
+	/**
+	 * Starts building a cache.
+	 * @param name the name used in log messages and as the {@code cache} meter tag
+	 * @param loader returns the value for a key, or {@code null} if there is none
+	 */
+	public static <K, V> Builder<K, V> builder(String name, Function<? super K, ? extends V> loader) {
+		return new Builder<>(name, loader);
+	}
+
+	/**
+	 * Starts building a cache with {@code Integer} keys, such as entity ids. Its index
+	 * keeps the keys as primitive {@code int}s, so it has a smaller footprint per entry
+	 * than a cache built with {@link #builder}.
+	 * @param name the name used in log messages and as the {@code cache} meter tag
+	 * @param loader returns the value for a key, or {@code null} if there is none
+	 */
+	public static <V> Builder<Integer, V> intKeyedBuilder(String name, IntFunction<? extends V> loader) {
+		Builder<Integer, V> builder = new Builder<>(name, loader::apply);
+		builder.intKeys = true;
+		return builder;
+	}
+
+	/**
+	 * Returns the cached value for the key, loading it if necessary.
+	 * @return the value, or {@code null} if the loader has none
+	 */
+	public V get(K key) {
+		V value = getIfPresent(key);
+		if (value != null || isKnownAbsent(key)) {
+			return value;
+		}
+		misses.increment();
+		return load(key);
+	}
+
+	/**
+	 * Returns the values for the keys, loading all missing ones together with the
+	 * {@link Builder#bulkLoader bulk loader} and caching them in one batch. Keys that are
+	 * already being loaded by another caller are waited for instead of loaded again.
+	 * Without a bulk loader, missing values are loaded one at a time.
+	 * @return the values found, in the iteration order of the keys; keys the loader has
+	 * no value for are left out
+	 */
+	public Map<K, V> getAll(Collection<? extends K> keys) {
+		Set<K> seen = new HashSet<>();
+		Map<K, V> values = new HashMap<>();
+		Map<K, CompletableFuture<V>> claimed = new LinkedHashMap<>();
+		Map<K, CompletableFuture<V>> joined = new LinkedHashMap<>();
+		for (K key : keys) {
+			if (!seen.add(key)) {
+				continue;
+			}
+			V value = getIfPresent(key);
+			if (value != null) {
+				values.put(key, value);
+				continue;
+			}
+			if (isKnownAbsent(key)) {
+				continue;
+			}
+			misses.increment();
+			if (bulkLoader == null) {
+				value = load(key);
+				if (value != null) {
+					values.put(key, value);
+				}
+				continue;
+			}
+			CompletableFuture<V> load = new CompletableFuture<>();
+			CompletableFuture<V> inFlight = loads.putIfAbsent(key, load);
+			if (inFlight != null) {
+				collapsedLoads.increment();
+				joined.put(key, inFlight);
+			}
+			else {
+				claimed.put(key, load);
+			}
+		}
+		// load before waiting on others, who may in turn be waiting on our keys
+		if (!claimed.isEmpty()) {
+			values.putAll(runBulkLoad(claimed));
+		}
+		for (Map.Entry<K, CompletableFuture<V>> entry : joined.entrySet()) {
+			V value = await(entry.getValue());
+			if (value != null) {
+				values.put(entry.getKey(), value);
+			}
+		}
+		Map<K, V> ordered = new LinkedHashMap<>();
+		for (K key : keys) {
+			V value = values.get(key);
+			if (value != null) {
+				ordered.put(key, value);
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Caches a value that was just written to the source of truth, replacing any cached
+	 * or concurrently loading copy.
+	 */
+	public void put(K key, V value) {
+		store.put(key, value);
+		if (offHeap != null) {
+			offHeap.invalidate(key);
+		}
+		if (absentKeys != null) {
+			absentKeys.invalidate(key);
+		}
+	}
+
+	/**
+	 * Discards the cached value for the key, if present.
+	 */
+	public void invalidate(K key) {
+		store.invalidate(key);
+		if (offHeap != null) {
+			offHeap.invalidate(key);
+		}
+		if (absentKeys != null) {
+			absentKeys.invalidate(key);
+		}
+	}
+
+	/**
+	 * Removes expired entries. Called periodically by the {@link CacheScheduler}.
+	 */
+	public void cleanUp() {
+		store.cleanUp();
+		if (offHeap != null) {
+			offHeap.cleanUp();
+		}
+		if (absentKeys != null) {
+			absentKeys.cleanUp();
+		}
+	}
+
+	/**
+	 * Returns the keys of up to {@code limit} cached entries, most frequently requested
+	 * first, for example to warm up a new instance with.
+	 */
+	public List<K> hottestKeys(int limit) {
+		return store.hottestKeys(limit);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of cached entries, which may include expired entries not yet
+	 * cleaned up.
+	 */
+	public long size() {
+		return store.size();
+	}
+
+	/**
+	 * Returns how many reads were answered from an entry that was not due for refresh.
+	 */
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns how many reads were answered from an entry that was close to expiry and
+	 * therefore had a background reload scheduled or already running.
+	 */
+	public long refreshCount() {
+		return refreshes.sum();
+	}
+
+	/**
+	 * Returns how many reads were answered from the off-heap tier.
+	 */
+	public long offHeapHitCount() {
+		return offHeapHits.sum();
+	}
+
+	/**
+	 * Returns how many reads were answered with {@code null} because the key was recently
+	 * loaded and found absent.
+	 */
+	public long negativeHitCount() {
+		return negativeHits.sum();
+	}
+
+	/**
+	 * Returns how many reads found no live entry and had to wait for a load.
+	 */
+	public long missCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns how many misses were answered by joining a load that another caller had
+	 * already started, instead of calling the loader themselves.
+	 */
+	public long collapsedLoadCount() {
+		return collapsedLoads.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Tags tags = Tags.of("cache", name);
+		FunctionCounter.builder("petclinic.cache.gets", hits, LongAdder::sum).tags(tags).tag("result", "hit")
+				.description("Reads answered from a cached value").register(registry);
+		FunctionCounter.builder("petclinic.cache.gets", refreshes, LongAdder::sum).tags(tags).tag("result", "refresh")
+				.description("Reads answered from a cached value while it was being reloaded").register(registry);
+		FunctionCounter.builder("petclinic.cache.gets", offHeapHits, LongAdder::sum).tags(tags)
+				.tag("result", "off-heap").description("Reads answered from the off-heap tier").register(registry);
+		FunctionCounter.builder("petclinic.cache.gets", negativeHits, LongAdder::sum).tags(tags)
+				.tag("result", "negative").description("Reads answered from a key remembered as absent")
+				.register(registry);
+		FunctionCounter.builder("petclinic.cache.gets", misses, LongAdder::sum).tags(tags).tag("result", "miss")
+				.description("Reads that had to wait for the loader").register(registry);
+		FunctionCounter.builder("petclinic.cache.loads", loadSuccesses, LongAdder::sum).tags(tags)
+				.tag("result", "success").description("Loads that completed").register(registry);
+		FunctionCounter.builder("petclinic.cache.loads", loadFailures, LongAdder::sum).tags(tags)
+				.tag("result", "failure").description("Loads that threw").register(registry);
+		FunctionCounter.builder("petclinic.cache.loads.collapsed", collapsedLoads, LongAdder::sum).tags(tags)
+				.description("Misses that joined a load already in flight").register(registry);
+		FunctionCounter.builder("petclinic.cache.evictions", store, CacheStore::expiredEvictionCount).tags(tags)
+				.tag("cause", "expired").description("Entries removed because they expired").register(registry);
+		FunctionCounter.builder("petclinic.cache.evictions", store, CacheStore::sizeEvictionCount).tags(tags)
+				.tag("cause", "size").description("Entries removed to stay within the maximum size")
+				.register(registry);
+		Gauge.builder("petclinic.cache.size", store, CacheStore::size).tags(tags)
+				.description("Number of cached entries").register(registry);
+		if (offHeap != null) {
+			FunctionCounter.builder("petclinic.cache.evictions", offHeap, OffHeapStore::evictionCount).tags(tags)
+					.tag("cause", "off-heap").description("Off-heap entries overwritten by newer ones")
+					.register(registry);
+			Gauge.builder("petclinic.cache.off-heap.size", offHeap, OffHeapStore::size).tags(tags)
+					.description("Number of entries in the off-heap tier").register(registry);
+			Gauge.builder("petclinic.cache.off-heap.used", offHeap, OffHeapStore::usedBytes).tags(tags)
+					.baseUnit("bytes").description("Bytes taken by entries in the off-heap tier").register(registry);
+		}
+		loadTimer = Timer.builder("petclinic.cache.load.duration").tags(tags)
+				.description("Time spent in the loader").publishPercentileHistogram().register(registry);
+	}
+
+	/**
+	 * Returns the cached value from either tier without loading it, scheduling a
+	 * refresh if it is close to expiry.
+	 */
+	private V getIfPresent(K key) {
+		CacheStore.Node<K, V> entry = store.getEntryIfPresent(key);
+		if (entry != null) {
+			if (refreshExecutor != null && store.expiresWithin(entry, refreshAheadInNanos)) {
+				refreshes.increment();
+				refresh(key, entry.value);
+			}
+			else {
+				hits.increment();
+			}
+			return entry.value;
+		}
+		if (offHeap != null) {
+			V value = offHeap.getIfPresent(key);
+			if (value != null) {
+				offHeapHits.increment();
+				return value;
+			}
+		}
+		return null;
+	}
+
+	private boolean isKnownAbsent(K key) {
+		if (absentKeys != null && absentKeys.getIfPresent(key) != null) {
+			negativeHits.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remembers that the loader found no value for the key. If anything was written
+	 * since the load started, the key may have been created meanwhile; the entry is then
+	 * dropped again. As {@link #put} bumps the version before clearing the key, either
+	 * this check or that clear comes after the entry was added.
+	 */
+	private void rememberAbsent(K key, long loadVersion) {
+		if (absentKeys != null) {
+			absentKeys.put(key, Boolean.TRUE);
+			if (store.currentVersion() != loadVersion) {
+				absentKeys.invalidate(key);
+			}
+		}
+	}
+
+	private V load(K key) {
+		CompletableFuture<V> load = new CompletableFuture<>();
+		CompletableFuture<V> inFlight = loads.putIfAbsent(key, load);
+		if (inFlight != null) {
+			collapsedLoads.increment();
+			return await(inFlight);
+		}
+		return runLoad(key, load);
+	}
+
+	/**
+	 * Schedules a background reload unless one is already in flight for the key. A miss
+	 * that arrives while the reload runs joins it like any other in-flight load. If the
+	 * executor is saturated the refresh is skipped and the entry expires as usual.
+	 */
+	private void refresh(K key, V current) {
+		CompletableFuture<V> load = new CompletableFuture<>();
+		if (loads.putIfAbsent(key, load) != null) {
+			return;
+		}
+		try {
+			refreshExecutor.execute(() -> {
+				try {
+					runLoad(key, load);
+				}
+				catch (RuntimeException ex) {
+					log.warn("Refreshing {} in cache {} failed, keeping the cached copy", key, name, ex);
+				}
+			});
+		}
+		catch (RejectedExecutionException ex) {
+			loads.remove(key, load);
+			load.complete(current);
+		}
+	}
+
+	private V runLoad(K key, CompletableFuture<V> load) {
+		long start = System.nanoTime();
+		try {
+			long loadVersion = store.currentVersion();
+			V value = loader.apply(key);
+			if (value != null) {
+				store.putIfNewer(key, value, loadVersion);
+			}
+			else {
+				rememberAbsent(key, loadVersion);
+			}
+			loadSuccesses.increment();
+			load.complete(value);
+			return value;
+		}
+		catch (RuntimeException | Error ex) {
+			loadFailures.increment();
+			load.completeExceptionally(ex);
+			throw ex;
+		}
+		finally {
+			recordLoadTime(System.nanoTime() - start);
+			loads.remove(key, load);
+		}
+	}
+
+	/**
+	 * Only called with {@code intKeys} set for a builder created by
+	 * {@link #intKeyedBuilder}, whose keys are {@code Integer}s.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K, V> CacheStore.Index<K, V> newIndex(boolean intKeys) {
+		return intKeys ? (CacheStore.Index<K, V>) (CacheStore.Index<?, V>) CacheStore.<V>intIndex()
+				: CacheStore.hashIndex();
+	}
+
+	private void demote(CacheStore.Node<K, V> node) {
+		if (offHeap != null) {
+			offHeap.put(node.key, node.value, node.expiresAt);
+		}
+	}
+
+	/**
+	 * Loads the claimed keys with one call to the bulk loader and completes every
+	 * claimed load, so that callers who joined them are answered too.
+	 */
+	private Map<K, V> runBulkLoad(Map<K, CompletableFuture<V>> claimed) {
+		long start = System.nanoTime();
+		try {
+			long loadVersion = store.currentVersion();
+			Map<K, ? extends V> found = bulkLoader.apply(Collections.unmodifiableSet(claimed.keySet()));
+			Map<K, V> loaded = new LinkedHashMap<>();
+			for (K key : claimed.keySet()) {
+				V value = found.get(key);
+				if (value != null) {
+					loaded.put(key, value);
+				}
+				else {
+					rememberAbsent(key, loadVersion);
+				}
+			}
+			store.putAllIfNewer(loaded, loadVersion);
+			loadSuccesses.increment();
+			for (Map.Entry<K, CompletableFuture<V>> entry : claimed.entrySet()) {
+				entry.getValue().complete(loaded.get(entry.getKey()));
+			}
+			return loaded;
+		}
+		catch (RuntimeException | Error ex) {
+			loadFailures.increment();
+			for (CompletableFuture<V> load : claimed.values()) {
+				load.completeExceptionally(ex);
+			}
+			throw ex;
+		}
+		finally {
+			recordLoadTime(System.nanoTime() - start);
+			for (Map.Entry<K, CompletableFuture<V>> entry : claimed.entrySet()) {
+				loads.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void recordLoadTime(long nanos) {
+		Timer timer = loadTimer;
+		if (timer != null) {
+			timer.record(nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private static <V> V await(CompletableFuture<V> load) {
+		try {
+			return load.join();
+		}
+		catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Collects the settings of a {@link TimedCache}.
+	 */
+	public static final class Builder<K, V> {
+
+		private final String name;
+
+		private final Function<? super K, ? extends V> loader;
+
+		private long expiryInMillis = 300000;
+
+		private long maximumSize = 10000;
+
+		private long refreshAheadInMillis;
+
+		private CacheScheduler scheduler;
+
+		private long offHeapBytes;
+
+		private boolean intKeys;
+
+		private long negativeExpiryInMillis;
+
+		private Function<? super Set<K>, ? extends Map<K, ? extends V>> bulkLoader;
+
+		private Builder(String name, Function<? super K, ? extends V> loader) {
+			this.name = name;
+			this.loader = loader;
+		}
+
+		/**
+		 * Sets how long an entry lives after it was written. Defaults to five minutes.
+		 */
+		public Builder<K, V> expireAfterWrite(long expiryInMillis) {
+			this.expiryInMillis = expiryInMillis;
+			return this;
+		}
+
+		/**
+		 * Sets the number of entries kept before the least popular ones are evicted.
+		 */
+		public Builder<K, V> maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * Sets how long before expiry a read schedules a background reload, or {@code 0}
+		 * to disable refresh-ahead. Only takes effect with a {@link #scheduler}.
+		 */
+		public Builder<K, V> refreshAhead(long refreshAheadInMillis) {
+			this.refreshAheadInMillis = refreshAheadInMillis;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler that sweeps expired entries and runs refreshes. Without one,
+		 * expired entries are only removed as new entries are written.
+		 */
+		public Builder<K, V> scheduler(CacheScheduler scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * Sets the size in bytes of the off-heap tier that entries evicted for size are
+		 * moved to, or {@code 0} to drop them instead. Defaults to {@code 0}.
+		 */
+		public Builder<K, V> offHeap(long offHeapBytes) {
+			this.offHeapBytes = offHeapBytes;
+			return this;
+		}
+
+		/**
+		 * Sets the function that {@link TimedCache#getAll} uses to load several missing
+		 * values at once, typically a repository query with an {@code IN} clause. It
+		 * returns the values it found by key and leaves out keys it has no value for.
+		 */
+		public Builder<K, V> bulkLoader(Function<? super Set<K>, ? extends Map<K, ? extends V>> bulkLoader) {
+			this.bulkLoader = bulkLoader;
+			return this;
+		}
+
+		/**
+		 * Sets how long a key the loader found no value for is remembered as absent, or
+		 * {@code 0} to load it again on every request. Defaults to {@code 0}.
+		 */
+		public Builder<K, V> expireNegativeAfter(long negativeExpiryInMillis) {
+			this.negativeExpiryInMillis = negativeExpiryInMillis;
+			return this;
+		}
+
+		public TimedCache<K, V> build() {
+			return new TimedCache<>(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,14 @@
+package org.springframework.samples.petclinic.utility;
+
+/**
+ * Registers the {@link Injectable} classes of one source file with a {@link SimpleDI}
+ * container, each with its dependencies and a factory that calls its constructor
+ * directly. Implementations are generated by {@link WiringIndexProcessor} and listed as
+ * services, so that {@link SimpleDI#loadWiringIndexes} finds them with a
+ * {@link java.util.ServiceLoader}.
+ */
+public interface WiringIndex {
+
+	void wire(SimpleDI container);
+
+}
@@ -0,0 +1,304 @@
+package org.springframework.samples.petclinic.utility;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates a {@link WiringIndex} for every source file with {@link Injectable} classes,
+ * named after its top-level class with {@value #SUFFIX} appended, and lists them all in
+ * {@code META-INF/services} once the last round is over.
+ * <p>
+ * Each class is registered with the parameter types of its constructor as dependencies
+ * and a lambda that calls the constructor with them, so the container needs neither
+ * reflection nor a method handle to create it. The classes of a file are registered in
+ * dependency order, and a cycle among them is a compile error, as is a constructor that
+ * throws a checked exception the lambda could not throw.
+ */
+@SupportedAnnotationTypes("org.springframework.samples.petclinic.utility.Injectable")
+public class WiringIndexProcessor extends AbstractProcessor {
+
+	static final String SUFFIX = "_WiringIndex";
+
+	static final String SERVICES = "META-INF/services/" + WiringIndex.class.getName();
+
+	private final Set<String> indexes = new TreeSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Map<TypeElement, List<Wiring>> byFile = new LinkedHashMap<>();
+		for (Element element : roundEnv.getElementsAnnotatedWith(Injectable.class)) {
+			Wiring wiring = wiringOf((TypeElement) element);
+			if (wiring != null) {
+				byFile.computeIfAbsent(topLevel(wiring.type), key -> new ArrayList<>()).add(wiring);
+			}
+		}
+		for (Map.Entry<TypeElement, List<Wiring>> file : byFile.entrySet()) {
+			List<Wiring> ordered = inDependencyOrder(file.getValue());
+			if (ordered != null) {
+				writeIndex(file.getKey(), ordered);
+			}
+		}
+		if (roundEnv.processingOver() && !indexes.isEmpty()) {
+			writeServices();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns how to wire the class, or null after reporting why it cannot be.
+	 */
+	private Wiring wiringOf(TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return error(type, "@Injectable needs a concrete class");
+		}
+		for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+			if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+				return error(type, "@Injectable classes cannot be private, nor nested in private classes");
+			}
+			if (enclosing.getEnclosingElement() instanceof TypeElement
+					&& !enclosing.getModifiers().contains(Modifier.STATIC)) {
+				return error(type, "@Injectable classes cannot be inner classes, nor nested in them");
+			}
+		}
+		ExecutableElement constructor = injectableConstructor(type);
+		if (constructor == null) {
+			return error(type, "@Injectable needs a single constructor that is not private, or a no-argument one");
+		}
+		for (TypeMirror thrown : constructor.getThrownTypes()) {
+			if (isChecked(thrown)) {
+				// the generated factory is a Function, which cannot throw it
+				return error(constructor, "@Injectable constructors cannot throw checked exceptions, such as " + thrown);
+			}
+		}
+		List<TypeMirror> dependencies = new ArrayList<>();
+		for (VariableElement parameter : constructor.getParameters()) {
+			if (parameter.asType().getKind().isPrimitive()) {
+				return error(parameter, "@Injectable constructors cannot take primitives");
+			}
+			dependencies.add(processingEnv.getTypeUtils().erasure(parameter.asType()));
+		}
+		Injectable injectable = type.getAnnotation(Injectable.class);
+		return new Wiring(type, dependencies, injectable.scope());
+	}
+
+	private static ExecutableElement injectableConstructor(TypeElement type) {
+		List<ExecutableElement> candidates = new ArrayList<>();
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (!constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				candidates.add(constructor);
+			}
+		}
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		for (ExecutableElement candidate : candidates) {
+			if (candidate.getParameters().isEmpty()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Orders the classes so that each comes after those of the same file it depends on,
+	 * or returns null after reporting a cycle.
+	 */
+	private List<Wiring> inDependencyOrder(List<Wiring> wirings) {
+		Map<String, Wiring> byName = new LinkedHashMap<>();
+		for (Wiring wiring : wirings) {
+			byName.put(wiring.type.getQualifiedName().toString(), wiring);
+		}
+		Set<Wiring> ordered = new LinkedHashSet<>();
+		for (Wiring wiring : wirings) {
+			List<Wiring> path = new ArrayList<>();
+			if (!visit(wiring, byName, ordered, path)) {
+				StringBuilder cycle = new StringBuilder();
+				for (Wiring step : path) {
+					cycle.append(step.type.getSimpleName()).append(" -> ");
+				}
+				Wiring first = path.get(0);
+				error(first.type, "Circular dependency: " + cycle + first.type.getSimpleName());
+				return null;
+			}
+		}
+		return new ArrayList<>(ordered);
+	}
+
+	private boolean visit(Wiring wiring, Map<String, Wiring> byName, Set<Wiring> ordered, List<Wiring> path) {
+		if (ordered.contains(wiring)) {
+			return true;
+		}
+		int onPath = path.indexOf(wiring);
+		if (onPath >= 0) {
+			path.subList(0, onPath).clear();
+			return false;
+		}
+		path.add(wiring);
+		for (TypeMirror dependency : wiring.dependencies) {
+			Wiring next = byName.get(sourceName(dependency));
+			if (next != null && !visit(next, byName, ordered, path)) {
+				return false;
+			}
+		}
+		path.remove(path.size() - 1);
+		ordered.add(wiring);
+		return true;
+	}
+
+	private void writeIndex(TypeElement file, List<Wiring> wirings) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(file);
+		String simpleName = file.getSimpleName() + SUFFIX;
+		String name = pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+		Element[] originatingElements = new Element[wirings.size()];
+		for (int i = 0; i < originatingElements.length; i++) {
+			originatingElements[i] = wirings.get(i).type;
+		}
+		try (PrintWriter out = new PrintWriter(
+				processingEnv.getFiler().createSourceFile(name, originatingElements).openWriter())) {
+			if (!pkg.isUnnamed()) {
+				out.printf("package %s;%n%n", pkg.getQualifiedName());
+			}
+			out.printf("/**%n * Wires the @Injectable classes of %s, generated by %s.%n */%n",
+					file.getSimpleName(), getClass().getSimpleName());
+			out.printf("public final class %s implements %s {%n%n", simpleName, WiringIndex.class.getName());
+			out.printf("\t@Override%n\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })%n");
+			out.printf("\tpublic void wire(%s container) {%n", SimpleDI.class.getName());
+			for (Wiring wiring : wirings) {
+				writeRegistration(out, wiring);
+			}
+			out.printf("\t}%n%n}%n");
+		}
+		catch (IOException ex) {
+			error(file, "Cannot write " + name + ": " + ex);
+			return;
+		}
+		indexes.add(name);
+	}
+
+	private void writeRegistration(PrintWriter out, Wiring wiring) {
+		String type = wiring.type.getQualifiedName().toString();
+		StringBuilder dependencies = new StringBuilder();
+		StringBuilder arguments = new StringBuilder();
+		for (int i = 0; i < wiring.dependencies.size(); i++) {
+			String dependency = sourceName(wiring.dependencies.get(i));
+			dependencies.append((i == 0) ? " " : ", ").append(dependency).append(".class");
+			arguments.append((i == 0) ? "" : ", ").append('(').append(dependency).append(") arguments[").append(i)
+					.append(']');
+		}
+		out.printf("\t\tcontainer.provideByFactory(%s.class, new Class<?>[] {%s },%n", type, dependencies);
+		out.printf("\t\t\t\targuments -> new %s(%s), %s.Scope.%s);%n", type, arguments, SimpleDI.class.getName(),
+				wiring.scope.name());
+	}
+
+	/**
+	 * Adds the indexes of this compilation to those already listed, so that an
+	 * incremental build that only recompiles some files keeps the others.
+	 */
+	private void writeServices() {
+		Set<String> services = new TreeSet<>(indexes);
+		try {
+			FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+			try (BufferedReader in = new BufferedReader(
+					new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					if (!line.trim().isEmpty()) {
+						services.add(line.trim());
+					}
+				}
+			}
+		}
+		catch (IOException ex) {
+			// Nothing listed yet
+		}
+		try (Writer out = new OutputStreamWriter(
+				processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES).openOutputStream(),
+				StandardCharsets.UTF_8)) {
+			for (String service : services) {
+				out.write(service + "\n");
+			}
+		}
+		catch (IOException ex) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + SERVICES + ": " + ex);
+		}
+	}
+
+	private boolean isChecked(TypeMirror thrown) {
+		Types types = processingEnv.getTypeUtils();
+		Elements elements = processingEnv.getElementUtils();
+		return !types.isAssignable(thrown, elements.getTypeElement(RuntimeException.class.getName()).asType())
+				&& !types.isAssignable(thrown, elements.getTypeElement(Error.class.getName()).asType());
+	}
+
+	private String sourceName(TypeMirror type) {
+		if (type.getKind() == TypeKind.DECLARED) {
+			return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+		}
+		return type.toString();
+	}
+
+	private static TypeElement topLevel(TypeElement type) {
+		while (type.getEnclosingElement() instanceof TypeElement) {
+			type = (TypeElement) type.getEnclosingElement();
+		}
+		return type;
+	}
+
+	private Wiring error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+		return null;
+	}
+
+	private static final class Wiring {
+
+		private final TypeElement type;
+
+		private final List<TypeMirror> dependencies;
+
+		private final SimpleDI.Scope scope;
+
+		Wiring(TypeElement type, List<TypeMirror> dependencies, SimpleDI.Scope scope) {
+			this.type = type;
+			this.dependencies = dependencies;
+			this.scope = scope;
+		}
+
+	}
+
+}
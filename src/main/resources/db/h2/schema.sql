@@ -41,7 +41,7 @@ CREATE TABLE owners (
   city       VARCHAR(80),
   telephone  VARCHAR(20)
 );
-CREATE INDEX owners_last_name ON owners (last_name);
+CREATE INDEX owners_last_name ON owners (last_name, id);
 
 CREATE TABLE pets (
   id         INTEGER IDENTITY PRIMARY KEY,
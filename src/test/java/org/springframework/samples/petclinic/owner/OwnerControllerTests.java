@@ -28,17 +28,30 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.utility.OwnerNameIndex;
+import org.springframework.samples.petclinic.utility.OwnerSearchIndex;
 import org.springframework.samples.petclinic.visit.Visit;
 import org.springframework.samples.petclinic.visit.VisitRepository;
 import org.springframework.test.web.servlet.MockMvc;
 
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
@@ -62,6 +75,12 @@ class OwnerControllerTests {
 	@MockBean
 	private VisitRepository visits;
 
+	@MockBean
+	private OwnerNameIndex nameIndex;
+
+	@MockBean
+	private OwnerSearchIndex searchIndex;
+
 	private Owner george;
 
 	@BeforeEach
@@ -85,6 +104,8 @@ class OwnerControllerTests {
 		Visit visit = new Visit();
 		visit.setDate(LocalDate.now());
 		given(this.visits.findByPetId(max.getId())).willReturn(Collections.singletonList(visit));
+		given(this.owners.findPageByLastName(anyString(), any(), any(), anyInt()))
+				.willReturn(new OwnerPage(Collections.emptyList(), false, false));
 	}
 
 	@Test
@@ -118,13 +139,45 @@ class OwnerControllerTests {
 
 	@Test
 	void testProcessFindFormSuccess() throws Exception {
-		given(this.owners.findByLastName("")).willReturn(Lists.newArrayList(george, new Owner()));
+		given(this.owners.findPageByLastName("", null, null, 20))
+				.willReturn(new OwnerPage(Lists.newArrayList(george, new Owner()), false, false));
 		mockMvc.perform(get("/owners")).andExpect(status().isOk()).andExpect(view().name("owners/ownersList"));
 	}
 
+	@Test
+	void testProcessFindFormPages() throws Exception {
+		Owner betty = new Owner();
+		betty.setId(2);
+		betty.setLastName("Davis");
+		given(this.owners.findPageByLastName(eq(""), eq(new OwnerCursor("Davis", 2)), isNull(), eq(20)))
+				.willReturn(new OwnerPage(Lists.newArrayList(george), true, true));
+		mockMvc.perform(get("/owners").param("after", "2-Davis")).andExpect(status().isOk())
+				.andExpect(model().attribute("page", hasProperty("previousCursor", is(OwnerCursor.of(george)))))
+				.andExpect(model().attribute("page", hasProperty("nextCursor", is(OwnerCursor.of(george)))))
+				.andExpect(view().name("owners/ownersList"));
+
+		given(this.owners.findPageByLastName(eq(""), isNull(), eq(OwnerCursor.of(george)), eq(20)))
+				.willReturn(new OwnerPage(Lists.newArrayList(betty), false, true));
+		mockMvc.perform(get("/owners").param("before", "1-Franklin")).andExpect(status().isOk())
+				.andExpect(model().attribute("page", hasProperty("previousCursor", nullValue())))
+				.andExpect(view().name("owners/ownersList"));
+
+		mockMvc.perform(get("/owners").param("after", "Franklin")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void testProcessFindFormFromNameIndexOnceReady() throws Exception {
+		given(this.nameIndex.isReady()).willReturn(true);
+		given(this.nameIndex.findPage("Fra", null, null, 20))
+				.willReturn(new OwnerPage(Lists.newArrayList(george), false, false));
+		mockMvc.perform(get("/owners").param("lastName", "Fra")).andExpect(status().is3xxRedirection())
+				.andExpect(view().name("redirect:/owners/" + TEST_OWNER_ID));
+	}
+
 	@Test
 	void testProcessFindFormByLastName() throws Exception {
-		given(this.owners.findByLastName(george.getLastName())).willReturn(Lists.newArrayList(george));
+		given(this.owners.findPageByLastName(george.getLastName(), null, null, 20))
+				.willReturn(new OwnerPage(Lists.newArrayList(george), false, false));
 		mockMvc.perform(get("/owners").param("lastName", "Franklin")).andExpect(status().is3xxRedirection())
 				.andExpect(view().name("redirect:/owners/" + TEST_OWNER_ID));
 	}
@@ -137,6 +190,43 @@ class OwnerControllerTests {
 				.andExpect(view().name("owners/findOwners"));
 	}
 
+	@Test
+	void testProcessSearchFormRanksOwnersOnceReady() throws Exception {
+		given(this.searchIndex.isReady()).willReturn(true);
+		given(this.searchIndex.findOwners("franklin madison", 20)).willReturn(Lists.newArrayList(george, new Owner()));
+		mockMvc.perform(get("/owners/search").param("q", "franklin madison")).andExpect(status().isOk())
+				.andExpect(model().attribute("selections", hasSize(2)))
+				.andExpect(view().name("owners/ownersList"));
+
+		given(this.searchIndex.findOwners("6085551023", 20)).willReturn(Lists.newArrayList(george));
+		mockMvc.perform(get("/owners/search").param("q", "6085551023")).andExpect(status().is3xxRedirection())
+				.andExpect(view().name("redirect:/owners/" + TEST_OWNER_ID));
+	}
+
+	@Test
+	void testProcessSearchFormByLastNameUntilReady() throws Exception {
+		given(this.owners.findPageByLastName("Franklin", null, null, 20))
+				.willReturn(new OwnerPage(Lists.newArrayList(george), false, false));
+		mockMvc.perform(get("/owners/search").param("q", " Franklin ")).andExpect(status().is3xxRedirection())
+				.andExpect(view().name("redirect:/owners/" + TEST_OWNER_ID));
+
+		mockMvc.perform(get("/owners/search").param("q", "Unknown")).andExpect(status().isOk())
+				.andExpect(model().attribute("notFound", true)).andExpect(view().name("owners/findOwners"));
+	}
+
+	@Test
+	void testSuggestFromNameIndexOnly() throws Exception {
+		mockMvc.perform(get("/owners/suggest").param("q", "Fr").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("$").isEmpty());
+
+		given(this.nameIndex.isReady()).willReturn(true);
+		given(this.nameIndex.suggest("Fr", 10)).willReturn(Lists.newArrayList(new OwnerSuggestion(1, "Franklin")));
+		mockMvc.perform(get("/owners/suggest").param("q", "Fr").accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON))
+				.andExpect(jsonPath("$[0].ownerId").value(1)).andExpect(jsonPath("$[0].lastName").value("Franklin"));
+		verifyNoInteractions(this.owners);
+	}
+
 	@Test
 	void testInitUpdateOwnerForm() throws Exception {
 		mockMvc.perform(get("/owners/{ownerId}/edit", TEST_OWNER_ID)).andExpect(status().isOk())
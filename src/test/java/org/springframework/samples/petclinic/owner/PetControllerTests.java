@@ -31,7 +31,9 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
+import org.springframework.samples.petclinic.utility.CacheScheduler;
 import org.springframework.samples.petclinic.utility.PetTimedCache;
+import org.springframework.samples.petclinic.utility.RequestIdentityMap;
 import org.springframework.test.web.servlet.MockMvc;
 
 /**
@@ -45,6 +47,8 @@ import org.springframework.test.web.servlet.MockMvc;
 	@ComponentScan.Filter(value = PetService.class, type = FilterType.ASSIGNABLE_TYPE),
 	@ComponentScan.Filter(value = LoggerConfig.class, type = FilterType.ASSIGNABLE_TYPE),
 	@ComponentScan.Filter(value = PetTimedCache.class, type = FilterType.ASSIGNABLE_TYPE),
+	@ComponentScan.Filter(value = CacheScheduler.class, type = FilterType.ASSIGNABLE_TYPE),
+	@ComponentScan.Filter(value = RequestIdentityMap.class, type = FilterType.ASSIGNABLE_TYPE),
 	}
 	)
 class PetControllerTests {
@@ -6,6 +6,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.slf4j.Logger;
 import org.springframework.samples.petclinic.utility.PetTimedCache;
+import org.springframework.samples.petclinic.utility.RequestIdentityMap;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -32,7 +33,7 @@ public class PetServiceTest {
 		mockPetTimedCache = mock(PetTimedCache.class);
 		OwnerRepository mockOwnerRepository = mock(OwnerRepository.class);
 		Logger mockLogger = mock(Logger.class);
-		petService = new PetService(mockPetTimedCache, mockOwnerRepository, mockLogger);
+		petService = new PetService(mockPetTimedCache, mockOwnerRepository, new RequestIdentityMap(), mockLogger);
 	}
 
 	@Before
@@ -19,7 +19,10 @@ package org.springframework.samples.petclinic.service;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,7 +30,9 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
 import org.springframework.samples.petclinic.owner.*;
+import org.springframework.samples.petclinic.utility.CacheScheduler;
 import org.springframework.samples.petclinic.utility.PetTimedCache;
+import org.springframework.samples.petclinic.utility.RequestIdentityMap;
 import org.springframework.samples.petclinic.vet.Vet;
 import org.springframework.samples.petclinic.vet.VetRepository;
 import org.springframework.samples.petclinic.visit.Visit;
@@ -68,7 +73,9 @@ import org.springframework.transaction.annotation.Transactional;
 	@ComponentScan.Filter(Service.class),
 	@ComponentScan.Filter(value = PetTypeFormatter.class, type = FilterType.ASSIGNABLE_TYPE),
 	@ComponentScan.Filter(value = LoggerConfig.class, type = FilterType.ASSIGNABLE_TYPE),
-	@ComponentScan.Filter(value = PetTimedCache.class, type = FilterType.ASSIGNABLE_TYPE)
+	@ComponentScan.Filter(value = PetTimedCache.class, type = FilterType.ASSIGNABLE_TYPE),
+	@ComponentScan.Filter(value = CacheScheduler.class, type = FilterType.ASSIGNABLE_TYPE),
+	@ComponentScan.Filter(value = RequestIdentityMap.class, type = FilterType.ASSIGNABLE_TYPE)
 })
 class ClinicServiceTests {
 
@@ -86,13 +93,51 @@ class ClinicServiceTests {
 
 	@Test
 	void shouldFindOwnersByLastName() {
-		Collection<Owner> owners = this.owners.findByLastName("Davis");
+		List<Owner> owners = this.owners.findPageByLastName("Davis", null, null, 20).getOwners();
 		assertThat(owners).hasSize(2);
 
-		owners = this.owners.findByLastName("Daviss");
+		owners = this.owners.findPageByLastName("Daviss", null, null, 20).getOwners();
 		assertThat(owners).isEmpty();
 	}
 
+	@Test
+	void shouldPageOwnersByLastNameThenId() {
+		OwnerPage first = this.owners.findPageByLastName("", null, null, 4);
+		assertThat(ids(first.getOwners())).containsExactly(7, 6, 2, 4);
+		assertThat(first.hasPrevious()).isFalse();
+		assertThat(first.getNextCursor()).isEqualTo(new OwnerCursor("Davis", 4));
+
+		OwnerPage second = this.owners.findPageByLastName("", first.getNextCursor(), null, 4);
+		assertThat(ids(second.getOwners())).containsExactly(8, 10, 1, 5);
+		OwnerPage last = this.owners.findPageByLastName("", second.getNextCursor(), null, 4);
+		assertThat(ids(last.getOwners())).containsExactly(3, 9);
+		assertThat(last.hasNext()).isFalse();
+
+		OwnerPage back = this.owners.findPageByLastName("", null, second.getPreviousCursor(), 4);
+		assertThat(ids(back.getOwners())).containsExactly(7, 6, 2, 4);
+		assertThat(back.hasPrevious()).isFalse();
+		assertThat(back.hasNext()).isTrue();
+
+		for (Owner owner : second.getOwners()) {
+			assertThat(owner.getPets()).hasSameSizeAs(this.owners.findById(owner.getId()).getPets());
+		}
+		assertThat(ids(this.owners.findPageByLastName("Davis", null, null, 4).getOwners())).containsExactly(2, 4);
+	}
+
+	@Test
+	void shouldFindPageOfOwnersByIdsInTheirOrderWithPets() {
+		OwnerPage page = this.owners.findPageByIds(Arrays.asList(6, 999, 3), true, false);
+		assertThat(ids(page.getOwners())).containsExactly(6, 3);
+		assertThat(page.hasPrevious()).isTrue();
+		assertThat(page.hasNext()).isFalse();
+		assertThat(page.getOwners().get(0).getPets()).hasSize(2);
+		assertThat(page.getOwners().get(1).getPets()).hasSize(2);
+	}
+
+	private static List<Integer> ids(List<Owner> owners) {
+		return owners.stream().map(Owner::getId).collect(Collectors.toList());
+	}
+
 	@Test
 	void shouldFindSingleOwnerWithPet() {
 		Owner owner = this.owners.findById(1);
@@ -105,7 +150,7 @@ class ClinicServiceTests {
 	@Test
 	@Transactional
 	void shouldInsertOwner() {
-		Collection<Owner> owners = this.owners.findByLastName("Schultz");
+		List<Owner> owners = this.owners.findPageByLastName("Schultz", null, null, 20).getOwners();
 		int found = owners.size();
 
 		Owner owner = new Owner();
@@ -117,7 +162,7 @@ class ClinicServiceTests {
 		this.owners.save(owner);
 		assertThat(owner.getId().longValue()).isNotEqualTo(0);
 
-		owners = this.owners.findByLastName("Schultz");
+		owners = this.owners.findPageByLastName("Schultz", null, null, 20).getOwners();
 		assertThat(owners.size()).isEqualTo(found + 1);
 	}
 
@@ -144,6 +189,12 @@ class ClinicServiceTests {
 
 	}
 
+	@Test
+	void shouldFindPetsByIds() {
+		Collection<Pet> pets = this.pets.findByIdIn(Arrays.asList(7, 8, 999));
+		assertThat(pets).extracting(Pet::getId).containsExactlyInAnyOrder(7, 8);
+	}
+
 	@Test
 	void shouldFindAllPetTypes() {
 		Collection<PetType> petTypes = this.pets.findPetTypes();
@@ -0,0 +1,150 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+import org.springframework.samples.petclinic.owner.Pet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory per entry and the get and put throughput of three ways to lay out
+ * a cache of pets keyed by id:
+ * <ul>
+ * <li>{@code two-maps}: the original {@code PetTimedCache} layout, one
+ * {@code Map<Integer, Long>} of write times and one {@code Map<Integer, Pet>} of values;
+ * <li>{@code hash-index}: a {@link CacheStore} indexed by a {@link ConcurrentHashMap};
+ * <li>{@code int-index}: a {@link CacheStore} indexed by a {@link ConcurrentIntMap}.
+ * </ul>
+ * Memory per entry is measured with JOL once the cache is filled and printed at setup;
+ * it counts everything reachable from the cache except the shared pet. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=CacheLayoutBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CacheLayoutBenchmark {
+
+	@Param({ "two-maps", "hash-index", "int-index" })
+	String layout;
+
+	@Param({ "100000" })
+	int entries;
+
+	private final Pet pet = new Pet();
+
+	private Layout cache;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		cache = newLayout();
+		for (int id = 0; id < entries; id++) {
+			cache.put(id, pet);
+		}
+		long bytes = GraphLayout.parseInstance(cache.root()).totalSize() - GraphLayout.parseInstance(pet).totalSize();
+		System.out.printf("%n%s: %d bytes per entry%n", layout, bytes / entries);
+	}
+
+	@Benchmark
+	public Pet get() {
+		return cache.get(ThreadLocalRandom.current().nextInt(entries));
+	}
+
+	@Benchmark
+	public void put() {
+		cache.put(ThreadLocalRandom.current().nextInt(entries), pet);
+	}
+
+	private Layout newLayout() {
+		switch (layout) {
+		case "two-maps":
+			return new TwoMaps();
+		case "hash-index":
+			return new StoreLayout(CacheStore.hashIndex(), entries);
+		case "int-index":
+			return new StoreLayout(CacheStore.intIndex(), entries);
+		default:
+			throw new IllegalArgumentException(layout);
+		}
+	}
+
+	private interface Layout {
+
+		Pet get(Integer id);
+
+		void put(Integer id, Pet pet);
+
+		Object root();
+
+	}
+
+	private static final class TwoMaps implements Layout {
+
+		private final Map<Integer, Long> timeMap = new ConcurrentHashMap<>();
+
+		private final Map<Integer, Pet> actualMap = new ConcurrentHashMap<>();
+
+		@Override
+		public Pet get(Integer id) {
+			return actualMap.containsKey(id) ? actualMap.get(id) : null;
+		}
+
+		@Override
+		public void put(Integer id, Pet pet) {
+			timeMap.put(id, System.currentTimeMillis());
+			actualMap.put(id, pet);
+		}
+
+		@Override
+		public Object root() {
+			return new Object[] { timeMap, actualMap };
+		}
+
+	}
+
+	private static final class StoreLayout implements Layout {
+
+		private final CacheStore<Integer, Pet> store;
+
+		StoreLayout(CacheStore.Index<Integer, Pet> index, int entries) {
+			this.store = new CacheStore<>(index, entries, pet -> 1, TimeUnit.HOURS.toMillis(1), System::nanoTime,
+					node -> {
+					});
+		}
+
+		@Override
+		public Pet get(Integer id) {
+			return store.getIfPresent(id);
+		}
+
+		@Override
+		public void put(Integer id, Pet pet) {
+			store.put(id, pet);
+		}
+
+		@Override
+		public Object root() {
+			return store;
+		}
+
+	}
+
+}
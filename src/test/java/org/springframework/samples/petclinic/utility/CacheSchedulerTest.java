@@ -0,0 +1,55 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSchedulerTest {
+
+	private final CacheScheduler scheduler = new CacheScheduler(10, 1);
+
+	@AfterEach
+	public void tearDown() {
+		scheduler.stop();
+	}
+
+	@Test
+	public void testExpiredEntriesAreSweptWhileRunning() throws Exception {
+		TimedCache<Integer, String> cache = TimedCache.<Integer, String>builder("test", key -> "value" + key)
+			.expireAfterWrite(20)
+			.scheduler(scheduler)
+			.build();
+		scheduler.start();
+		cache.get(1);
+		assertEquals(1, cache.size());
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (cache.size() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testRefreshExecutorRunsOnlyWhileStarted() throws Exception {
+		assertThrows(RejectedExecutionException.class, () -> scheduler.refreshExecutor().execute(() -> {
+		}));
+
+		scheduler.start();
+		assertTrue(scheduler.isRunning());
+		CountDownLatch ran = new CountDownLatch(1);
+		scheduler.refreshExecutor().execute(ran::countDown);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+		scheduler.stop();
+		assertFalse(scheduler.isRunning());
+		assertThrows(RejectedExecutionException.class, () -> scheduler.refreshExecutor().execute(() -> {
+		}));
+	}
+
+}
@@ -0,0 +1,163 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheStoreTest {
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	private CacheStore<Integer, String> newStore(long maximumSize, long expiryInMillis) {
+		return new CacheStore<>(maximumSize, value -> 1, expiryInMillis, nanos::get);
+	}
+
+	private void advanceMillis(long millis) {
+		nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	@Test
+	public void testEntryIsReturnedUntilItExpires() {
+		CacheStore<Integer, String> store = newStore(10, 1000);
+		store.put(1, "one");
+		advanceMillis(999);
+		assertEquals("one", store.getIfPresent(1));
+		advanceMillis(1);
+		assertNull(store.getIfPresent(1));
+	}
+
+	@Test
+	public void testCleanUpRemovesOnlyExpiredEntries() {
+		CacheStore<Integer, String> store = newStore(10, 1000);
+		store.put(1, "one");
+		advanceMillis(600);
+		store.put(2, "two");
+		advanceMillis(600);
+		store.cleanUp();
+		assertEquals(1, store.size());
+		assertEquals("two", store.getIfPresent(2));
+	}
+
+	@Test
+	public void testRewriteRestartsExpiry() {
+		CacheStore<Integer, String> store = newStore(10, 1000);
+		store.put(1, "one");
+		advanceMillis(600);
+		store.put(1, "uno");
+		advanceMillis(600);
+		store.cleanUp();
+		assertEquals("uno", store.getIfPresent(1));
+	}
+
+	@Test
+	public void testSizeNeverExceedsMaximum() {
+		CacheStore<Integer, String> store = newStore(100, 60000);
+		for (int i = 0; i < 1000; i++) {
+			store.put(i, "pet" + i);
+		}
+		assertEquals(100, store.size());
+		assertEquals(100, store.weightedSize());
+	}
+
+	@Test
+	public void testFrequentlyReadEntrySurvivesScan() {
+		CacheStore<Integer, String> store = newStore(10, 60000);
+		store.put(-1, "popular");
+		for (int i = 0; i < 5; i++) {
+			store.getIfPresent(-1);
+		}
+		for (int i = 0; i < 100; i++) {
+			store.putIfNewer(i, "pet" + i, store.currentVersion());
+		}
+		assertEquals("popular", store.getIfPresent(-1));
+	}
+
+	@Test
+	public void testWeightBoundsTotalWeight() {
+		CacheStore<Integer, String> store = new CacheStore<>(10, String::length, 60000, nanos::get);
+		store.put(1, "aaaa");
+		store.put(2, "bbbb");
+		store.put(3, "cccc");
+		assertTrue(store.weightedSize() <= 10);
+	}
+
+	@Test
+	public void testInvalidateRemovesEntry() {
+		CacheStore<Integer, String> store = newStore(10, 60000);
+		store.put(1, "one");
+		store.invalidate(1);
+		assertNull(store.getIfPresent(1));
+		assertEquals(0, store.weightedSize());
+	}
+
+	@Test
+	public void testLoadStartedBeforeWriteDoesNotReplaceIt() {
+		CacheStore<Integer, String> store = newStore(10, 60000);
+		long loadVersion = store.currentVersion();
+		store.put(1, "written");
+		assertFalse(store.putIfNewer(1, "loaded", loadVersion));
+		assertEquals("written", store.getIfPresent(1));
+	}
+
+	@Test
+	public void testLoadStartedBeforeWriteIsRejectedAfterTheWriteIsEvicted() {
+		CacheStore<Integer, String> store = newStore(1, 60000);
+		long loadVersion = store.currentVersion();
+		store.put(1, "written");
+		store.put(2, "other");
+		assertNull(store.getIfPresent(1));
+		assertFalse(store.putIfNewer(1, "loaded", loadVersion));
+		assertNull(store.getIfPresent(1));
+
+		loadVersion = store.currentVersion();
+		store.invalidate(2);
+		store.putAllIfNewer(Collections.singletonMap(2, "loaded"), loadVersion);
+		assertNull(store.getIfPresent(2));
+	}
+
+	@Test
+	public void testLoadStartedAfterWriteReplacesIt() {
+		CacheStore<Integer, String> store = newStore(10, 60000);
+		store.put(1, "written");
+		long loadVersion = store.currentVersion();
+		assertTrue(store.putIfNewer(1, "loaded", loadVersion));
+		assertEquals("loaded", store.getIfPresent(1));
+	}
+
+	@Test
+	public void testBatchLoadSkipsKeysWrittenDuringLoad() {
+		CacheStore<Integer, String> store = newStore(10, 60000);
+		long loadVersion = store.currentVersion();
+		store.put(1, "written");
+		Map<Integer, String> loaded = new HashMap<>();
+		loaded.put(1, "loaded");
+		loaded.put(2, "two");
+		store.putAllIfNewer(loaded, loadVersion);
+		assertEquals("written", store.getIfPresent(1));
+		assertEquals("two", store.getIfPresent(2));
+	}
+
+	@Test
+	public void testIntIndexBehavesLikeHashIndex() {
+		CacheStore<Integer, String> store = new CacheStore<>(CacheStore.intIndex(), 100, value -> 1, 1000, nanos::get,
+				node -> {
+				});
+		for (int i = 0; i < 1000; i++) {
+			store.put(i, "pet" + i);
+		}
+		assertEquals(100, store.size());
+		assertEquals("pet999", store.getIfPresent(999));
+		store.invalidate(999);
+		assertNull(store.getIfPresent(999));
+		advanceMillis(1000);
+		store.cleanUp();
+		assertEquals(0, store.size());
+	}
+
+}
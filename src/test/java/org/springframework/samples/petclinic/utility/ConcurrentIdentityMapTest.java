@@ -0,0 +1,100 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.Pet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentIdentityMapTest {
+
+	private final ConcurrentIdentityMap<Pet> pets = new ConcurrentIdentityMap<>();
+
+	@Test
+	public void testMatchesAndReplacesById() {
+		Pet leo = pet(1, "Leo");
+		assertTrue(pets.add(leo));
+		assertFalse(pets.add(leo));
+		assertSame(leo, pets.addIfAbsent(pet(1, "Rosy")));
+		assertTrue(pets.add(pet(1, "Rosy")));
+		assertEquals("Rosy", pets.get(1).getName());
+		assertTrue(pets.contains(pet(1, null)));
+		assertTrue(pets.remove(pet(1, null)));
+		assertFalse(pets.remove(pet(1, null)));
+		assertTrue(pets.isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> pets.add(new Pet()));
+	}
+
+	@Test
+	public void testRetainAllRemovesThroughIterator() {
+		for (int id = 1; id <= 4; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		IdentityMap<Pet> kept = new IdentityMap<>();
+		kept.addAll(Arrays.asList(pet(2, null), pet(4, null)));
+		assertTrue(pets.retainAll(kept));
+		assertEquals(2, pets.size());
+		assertNull(pets.get(1));
+		assertNotNull(pets.get(4));
+	}
+
+	@Test
+	public void testIterationToleratesConcurrentChanges() {
+		for (int id = 1; id <= 100; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		Iterator<Pet> iterator = pets.iterator();
+		int seen = 0;
+		while (iterator.hasNext()) {
+			Pet pet = iterator.next();
+			pets.add(pet(pet.getId() + 1000, "copy"));
+			seen++;
+		}
+		assertTrue(seen >= 100);
+	}
+
+	@Test
+	public void testConcurrentWritersDoNotLoseEntities() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int offset = t * 10000;
+				futures.add(executor.submit(() -> {
+					for (int id = offset; id < offset + 10000; id++) {
+						pets.add(pet(id, "pet" + id));
+						pets.get(id - 1);
+						if (id % 2 == 0) {
+							pets.remove(pet(id, null));
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(40000, pets.size());
+		for (Pet pet : pets) {
+			assertEquals(1, pet.getId() % 2);
+		}
+	}
+
+	private static Pet pet(int id, String name) {
+		Pet pet = new Pet();
+		pet.setId(id);
+		pet.setName(name);
+		return pet;
+	}
+
+}
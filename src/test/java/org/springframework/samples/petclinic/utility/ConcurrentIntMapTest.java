@@ -0,0 +1,95 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentIntMapTest {
+
+	private final ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+
+	@Test
+	public void testPutReplacesAndReturnsPreviousValue() {
+		assertNull(map.put(1, "one"));
+		assertEquals("one", map.put(1, "uno"));
+		assertEquals("uno", map.get(1));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testZeroAndNegativeKeysAreDistinct() {
+		map.put(0, "zero");
+		map.put(-1, "minus one");
+		map.put(Integer.MIN_VALUE, "min");
+		assertEquals("zero", map.get(0));
+		assertEquals("minus one", map.get(-1));
+		assertEquals("min", map.get(Integer.MIN_VALUE));
+		assertNull(map.get(1));
+	}
+
+	@Test
+	public void testGrowsPastInitialCapacity() {
+		for (int i = 0; i < 100000; i++) {
+			map.put(i, "pet" + i);
+		}
+		assertEquals(100000, map.size());
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("pet" + i, map.get(i));
+		}
+	}
+
+	@Test
+	public void testRemovedKeysAreGoneAndSlotsAreReused() {
+		for (int round = 0; round < 100; round++) {
+			for (int i = 0; i < 1000; i++) {
+				map.put(i, "pet" + i);
+			}
+			for (int i = 0; i < 1000; i += 2) {
+				assertEquals("pet" + i, map.remove(i));
+			}
+			assertEquals(500, map.size());
+			assertNull(map.get(0));
+			assertEquals("pet1", map.get(1));
+		}
+	}
+
+	@Test
+	public void testConditionalRemoveOnlyRemovesMatchingValue() {
+		String one = "one";
+		map.put(1, one);
+		assertFalse(map.remove(1, new String("one")));
+		assertTrue(map.remove(1, one));
+		assertNull(map.get(1));
+	}
+
+	@Test
+	public void testReadersSeeWritesFromOtherThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int offset = t * 50000;
+				writers.add(executor.submit(() -> {
+					for (int i = offset; i < offset + 50000; i++) {
+						map.put(i, "pet" + i);
+						assertEquals("pet" + i, map.get(i));
+					}
+				}));
+			}
+			for (Future<?> writer : writers) {
+				writer.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(200000, map.size());
+	}
+
+}
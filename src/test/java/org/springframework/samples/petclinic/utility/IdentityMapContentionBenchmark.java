@@ -0,0 +1,106 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.samples.petclinic.owner.Pet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link ConcurrentIdentityMap} and an {@link IdentityMap} wrapped in
+ * {@link Collections#synchronizedCollection} hold up as more threads share them, with a
+ * read-only workload and one where every tenth operation writes an entity back.
+ * <p>
+ * JMH cannot take the thread count as a {@code @Param}, so {@link #main} runs the
+ * benchmark once per thread count from 1 to 64 and prints a summary table at the end.
+ * Run with {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=IdentityMapContentionBenchmark
+ * -Dbenchmark.main=org.springframework.samples.petclinic.utility.IdentityMapContentionBenchmark};
+ * the other JMH options passed by the profile still apply, and each thread count writes
+ * its own result file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentityMapContentionBenchmark {
+
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	@Param({ "synchronized", "concurrent" })
+	String implementation;
+
+	@Param({ "10000" })
+	int entities;
+
+	private Pet[] pets;
+
+	private Collection<Pet> map;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		pets = new Pet[entities];
+		map = "concurrent".equals(implementation) ? new ConcurrentIdentityMap<>(entities)
+				: Collections.synchronizedCollection(new IdentityMap<>());
+		for (int id = 0; id < entities; id++) {
+			Pet pet = new Pet();
+			pet.setId(id);
+			pets[id] = pet;
+			map.add(pet);
+		}
+	}
+
+	@Benchmark
+	public boolean read() {
+		return map.contains(pets[ThreadLocalRandom.current().nextInt(entities)]);
+	}
+
+	@Benchmark
+	public boolean readMostly() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Pet pet = pets[random.nextInt(entities)];
+		return (random.nextInt(10) == 0) ? map.add(pet) : map.contains(pet);
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		List<RunResult> results = new ArrayList<>();
+		for (int threads : THREAD_COUNTS) {
+			ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine)
+					.include(IdentityMapContentionBenchmark.class.getName()).threads(threads);
+			if (commandLine.getResult().hasValue()) {
+				options.result(commandLine.getResult().get().replace(".json", "-" + threads + "-threads.json"));
+			}
+			results.addAll(new Runner(options.build()).run());
+		}
+		System.out.printf("%n%-8s %-12s %-14s %14s%n", "threads", "benchmark", "implementation", "ops/us");
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			System.out.printf("%-8d %-12s %-14s %14.3f%n", result.getParams().getThreads(),
+					benchmark.substring(benchmark.lastIndexOf('.') + 1), result.getParams().getParam("implementation"),
+					result.getPrimaryResult().getScore());
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+import org.springframework.samples.petclinic.owner.Pet;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory per entity and the lookup and update throughput of the id index
+ * {@link IdentityMap} used to keep, a {@code HashSet<Integer>}, with the primitive
+ * {@link IntIntMap} it keeps now, at 10 thousand, 1 million and 10 million entities.
+ * <p>
+ * The footprint of the index, and of a whole {@link IdentityMap} without the entities
+ * themselves, is measured with JOL once filled and printed at setup. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=IdentityMapIndexBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class IdentityMapIndexBenchmark {
+
+	@Param({ "hash-set", "int-int-map" })
+	String index;
+
+	@Param({ "10000", "1000000", "10000000" })
+	int entities;
+
+	private Index ids;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ids = "hash-set".equals(index) ? new HashSetIndex() : new IntIntMapIndex();
+		for (int id = 0; id < entities; id++) {
+			ids.add(id);
+		}
+		System.out.printf("%n%s: %d bytes per entity%n", index,
+				GraphLayout.parseInstance(ids.root()).totalSize() / entities);
+		if (!"hash-set".equals(index)) {
+			Pet[] pets = new Pet[entities];
+			IdentityMap<Pet> map = new IdentityMap<>(entities);
+			for (int id = 0; id < entities; id++) {
+				pets[id] = new Pet();
+				pets[id].setId(id);
+				map.add(pets[id]);
+			}
+			long bytes = GraphLayout.parseInstance(map).subtract(GraphLayout.parseInstance((Object) pets)).totalSize();
+			System.out.printf("IdentityMap without entities: %d bytes per entity%n", bytes / entities);
+		}
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return ids.contains(ThreadLocalRandom.current().nextInt(entities));
+	}
+
+	@Benchmark
+	public boolean removeAndAdd() {
+		int id = ThreadLocalRandom.current().nextInt(entities);
+		ids.remove(id);
+		return ids.add(id);
+	}
+
+	private interface Index {
+
+		boolean contains(int id);
+
+		boolean add(int id);
+
+		void remove(int id);
+
+		Object root();
+
+	}
+
+	private static final class HashSetIndex implements Index {
+
+		private final Set<Integer> ids = new HashSet<>();
+
+		@Override
+		public boolean contains(int id) {
+			return ids.contains(id);
+		}
+
+		@Override
+		public boolean add(int id) {
+			return ids.add(id);
+		}
+
+		@Override
+		public void remove(int id) {
+			ids.remove(id);
+		}
+
+		@Override
+		public Object root() {
+			return ids;
+		}
+
+	}
+
+	private static final class IntIntMapIndex implements Index {
+
+		private final IntIntMap ids = new IntIntMap();
+
+		private int slot;
+
+		@Override
+		public boolean contains(int id) {
+			return ids.containsKey(id);
+		}
+
+		@Override
+		public boolean add(int id) {
+			return ids.put(id, slot++ & Integer.MAX_VALUE) == IntIntMap.MISSING;
+		}
+
+		@Override
+		public void remove(int id) {
+			ids.remove(id);
+		}
+
+		@Override
+		public Object root() {
+			return ids;
+		}
+
+	}
+
+}
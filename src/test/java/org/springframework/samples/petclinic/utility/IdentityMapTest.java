@@ -0,0 +1,269 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.visit.Visit;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdentityMapTest {
+
+	private final IdentityMap<Pet> pets = new IdentityMap<>();
+
+	@Test
+	public void testAddWithSameIdReplacesInPlace() {
+		pets.add(pet(1, "Leo"));
+		pets.add(pet(2, "Basil"));
+		Pet rosy = pet(1, "Rosy");
+		assertTrue(pets.add(rosy));
+		assertFalse(pets.add(rosy));
+		assertEquals(2, pets.size());
+		assertSame(rosy, pets.get(1));
+		assertEquals(Arrays.asList("Rosy", "Basil"), names(pets));
+	}
+
+	@Test
+	public void testContainsAndRemoveMatchById() {
+		pets.add(pet(1, "Leo"));
+		pets.add(pet(2, "Basil"));
+		assertTrue(pets.contains(pet(2, "someone else")));
+		assertFalse(pets.contains(pet(3, "Basil")));
+		assertFalse(pets.contains("Basil"));
+		assertTrue(pets.remove(pet(1, "someone else")));
+		assertFalse(pets.remove(pet(1, "Leo")));
+		assertNull(pets.get(1));
+		assertEquals(Arrays.asList("Basil"), names(pets));
+	}
+
+	@Test
+	public void testEntityWithoutIdIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> pets.add(new Pet()));
+		assertFalse(pets.contains(new Pet()));
+	}
+
+	@Test
+	public void testKeepsInsertionOrderThroughRemovalsAndCompaction() {
+		List<Integer> expected = new ArrayList<>();
+		for (int id = 0; id < 1000; id++) {
+			pets.add(pet(id, "pet" + id));
+			expected.add(id);
+		}
+		for (int id = 0; id < 1000; id += 3) {
+			pets.remove(pet(id, null));
+			expected.remove(Integer.valueOf(id));
+		}
+		for (int id = 1000; id < 1100; id++) {
+			pets.add(pet(id, "pet" + id));
+			expected.add(id);
+		}
+		assertEquals(expected.size(), pets.size());
+		assertEquals(expected, ids(pets));
+		for (int id : expected) {
+			assertEquals(Integer.valueOf(id), pets.get(id).getId());
+		}
+	}
+
+	@Test
+	public void testIteratorRemovesAndFailsFast() {
+		for (int id = 1; id <= 5; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		Iterator<Pet> iterator = pets.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getId() % 2 == 0) {
+				iterator.remove();
+			}
+		}
+		assertEquals(Arrays.asList(1, 3, 5), ids(pets));
+		Iterator<Pet> removing = pets.iterator();
+		removing.next();
+		removing.remove();
+		assertThrows(IllegalStateException.class, removing::remove);
+		assertEquals(Arrays.asList(3, 5), ids(pets));
+
+		Iterator<Pet> stale = pets.iterator();
+		stale.next();
+		pets.add(pet(6, "pet6"));
+		assertThrows(ConcurrentModificationException.class, stale::next);
+	}
+
+	@Test
+	public void testToArrayAndRetainAll() {
+		for (int id = 1; id <= 4; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		pets.remove(pet(2, null));
+		assertEquals(3, pets.toArray().length);
+		Pet[] array = pets.toArray(new Pet[0]);
+		assertEquals(Arrays.asList(1, 3, 4), ids(Arrays.asList(array)));
+		Pet[] larger = pets.toArray(new Pet[5]);
+		assertNull(larger[3]);
+
+		assertTrue(pets.retainAll(Arrays.asList(array[0], array[2])));
+		assertFalse(pets.retainAll(Arrays.asList(array[0], array[2])));
+		assertEquals(Arrays.asList(1, 4), ids(pets));
+		assertFalse(pets.contains(pet(3, null)));
+	}
+
+	@Test
+	public void testSortKeepsIdsReachable() {
+		pets.add(pet(1, "Leo"));
+		pets.add(pet(2, "Basil"));
+		pets.add(pet(3, "Rosy"));
+		pets.remove(pet(1, null));
+		pets.add(pet(4, "George"));
+		pets.sort(Comparator.comparing(Pet::getName));
+		assertEquals(Arrays.asList("Basil", "George", "Rosy"), names(pets));
+		assertEquals("Rosy", pets.get(3).getName());
+		pets.remove(pet(4, null));
+		assertEquals(Arrays.asList("Basil", "Rosy"), names(pets));
+	}
+
+	@Test
+	public void testSortedViewFollowsChanges() {
+		pets.add(pet(1, "Leo"));
+		pets.add(pet(2, "Basil"));
+		NavigableSet<Pet> byName = pets.sortedBy(Comparator.comparing(Pet::getName));
+		assertEquals(Arrays.asList("Basil", "Leo"), names(byName));
+
+		pets.add(pet(3, "George"));
+		pets.add(pet(4, "Basil"));
+		pets.add(pet(1, "Rosy"));
+		pets.remove(pet(2, null));
+		assertEquals(Arrays.asList("Basil", "George", "Rosy"), names(byName));
+		assertEquals(Arrays.asList(4, 3, 1), ids(byName));
+		assertEquals(Arrays.asList("George"), names(byName.subSet(pet(0, "C"), true, pet(0, "Q"), false)));
+
+		Iterator<Pet> iterator = pets.iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(Arrays.asList("Basil", "George"), names(byName));
+		assertThrows(UnsupportedOperationException.class, () -> byName.add(pet(5, "Max")));
+
+		pets.clear();
+		assertTrue(byName.isEmpty());
+	}
+
+	@Test
+	public void testSortedViewsAreRegisteredPerComparator() {
+		IdentityMap<Visit> visits = new IdentityMap<>();
+		visits.add(visit(1, LocalDate.of(2013, 1, 3)));
+		visits.add(visit(2, LocalDate.of(2013, 1, 1)));
+		visits.add(visit(3, LocalDate.of(2013, 1, 2)));
+		Comparator<Visit> byDate = Comparator.comparing(Visit::getDate);
+		NavigableSet<Visit> oldestFirst = visits.sortedBy(byDate);
+		assertSame(oldestFirst.first(), visits.sortedBy(byDate).first());
+		assertEquals(Integer.valueOf(2), oldestFirst.first().getId());
+		assertEquals(Integer.valueOf(1), visits.sortedBy(byDate.reversed()).first().getId());
+
+		assertTrue(visits.removeSortedView(byDate));
+		assertFalse(visits.removeSortedView(byDate));
+		visits.add(visit(4, LocalDate.of(2012, 12, 31)));
+		assertEquals(Integer.valueOf(4), visits.sortedBy(byDate).first().getId());
+	}
+
+	@Test
+	public void testSpliteratorIsSizedAfterRemovals() {
+		for (int id = 0; id < 100; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		pets.remove(pet(10, null));
+		pets.remove(pet(20, null));
+		Spliterator<Pet> spliterator = pets.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.DISTINCT | Spliterator.NONNULL
+				| Spliterator.ORDERED));
+		assertEquals(98, spliterator.getExactSizeIfKnown());
+		Spliterator<Pet> prefix = spliterator.trySplit();
+		assertFalse(prefix.hasCharacteristics(Spliterator.SIZED));
+		assertEquals(98, prefix.estimateSize() + spliterator.estimateSize());
+		assertTrue(prefix.tryAdvance(pet -> assertEquals(Integer.valueOf(0), pet.getId())));
+
+		assertEquals(98, pets.stream().count());
+		assertEquals(IntStream.range(0, 100).sum() - 30, pets.parallelStream().mapToInt(Pet::getId).sum());
+		assertEquals(ids(pets), pets.parallelStream().map(Pet::getId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testSpliteratorOfCompactMapIsSubsized() {
+		for (int id = 0; id < 100; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		Spliterator<Pet> spliterator = pets.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+		Spliterator<Pet> prefix = spliterator.trySplit();
+		assertEquals(50, prefix.getExactSizeIfKnown());
+		assertEquals(50, spliterator.getExactSizeIfKnown());
+	}
+
+	@Test
+	public void testReadingDoesNotInvalidateIterators() {
+		for (int id = 0; id < 10; id++) {
+			pets.add(pet(id, "pet" + id));
+		}
+		pets.remove(pet(3, null));
+		Iterator<Pet> iterator = pets.iterator();
+		assertEquals(Integer.valueOf(0), iterator.next().getId());
+		assertEquals(9, pets.stream().count());
+		assertEquals(9, pets.toArray().length);
+		assertEquals(9, pets.toArray(new Pet[0]).length);
+		assertEquals(Integer.valueOf(1), iterator.next().getId());
+		assertEquals(Integer.valueOf(2), iterator.next().getId());
+		assertEquals(Integer.valueOf(4), iterator.next().getId());
+	}
+
+	@Test
+	public void testSpliteratorFailsFast() {
+		pets.add(pet(1, "Leo"));
+		pets.add(pet(2, "Basil"));
+		assertThrows(ConcurrentModificationException.class,
+				() -> pets.stream().forEach(pet -> pets.add(pet(pet.getId() + 10, "copy"))));
+	}
+
+	@Test
+	public void testCollectsIntoIdentityMap() {
+		IdentityMap<Pet> collected = IntStream.range(0, 10000).parallel().mapToObj(id -> pet(id % 5000, "pet" + id))
+				.collect(IdentityMap.toIdentityMap());
+		assertEquals(5000, collected.size());
+		assertEquals("pet7000", collected.get(2000).getName());
+		assertEquals(IntStream.range(0, 5000).boxed().collect(Collectors.toList()), ids(collected));
+	}
+
+	private static Visit visit(int id, LocalDate date) {
+		Visit visit = new Visit();
+		visit.setId(id);
+		visit.setDate(date);
+		return visit;
+	}
+
+	private static Pet pet(int id, String name) {
+		Pet pet = new Pet();
+		pet.setId(id);
+		pet.setName(name);
+		return pet;
+	}
+
+	private static List<Integer> ids(Iterable<Pet> pets) {
+		List<Integer> ids = new ArrayList<>();
+		pets.forEach(pet -> ids.add(pet.getId()));
+		return ids;
+	}
+
+	private static List<String> names(Iterable<Pet> pets) {
+		List<String> names = new ArrayList<>();
+		pets.forEach(pet -> names.add(pet.getName()));
+		return names;
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntBloomFilterTest {
+
+	@Test
+	public void testEveryAddedIdMightBeContained() {
+		IntBloomFilter filter = new IntBloomFilter(10000, 0.01);
+		for (int id = 0; id < 10000; id++) {
+			filter.put(id);
+		}
+		for (int id = 0; id < 10000; id++) {
+			assertTrue(filter.mightContain(id));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRateIsCloseToConfigured() {
+		IntBloomFilter filter = new IntBloomFilter(10000, 0.01);
+		for (int id = 0; id < 10000; id++) {
+			filter.put(id);
+		}
+		int falsePositives = 0;
+		for (int id = 10000; id < 110000; id++) {
+			if (filter.mightContain(id)) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 2000, falsePositives + " false positives in 100000");
+	}
+
+	@Test
+	public void testEmptyFilterContainsNothing() {
+		IntBloomFilter filter = new IntBloomFilter(100, 0.01);
+		assertFalse(filter.mightContain(0));
+		assertFalse(filter.mightContain(-1));
+	}
+
+}
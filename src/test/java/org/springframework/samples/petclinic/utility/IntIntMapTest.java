@@ -0,0 +1,57 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntIntMapTest {
+
+	private final IntIntMap map = new IntIntMap();
+
+	@Test
+	public void testPutGetAndRemove() {
+		assertEquals(IntIntMap.MISSING, map.put(7, 70));
+		assertEquals(70, map.put(7, 71));
+		assertEquals(IntIntMap.MISSING, map.put(0, 0));
+		assertEquals(IntIntMap.MISSING, map.put(Integer.MIN_VALUE, 1));
+		assertEquals(71, map.get(7));
+		assertEquals(0, map.get(0));
+		assertEquals(1, map.get(Integer.MIN_VALUE));
+		assertEquals(IntIntMap.MISSING, map.get(8));
+		assertEquals(3, map.size());
+		assertEquals(71, map.remove(7));
+		assertEquals(IntIntMap.MISSING, map.remove(7));
+		assertFalse(map.containsKey(7));
+		assertEquals(2, map.size());
+		assertThrows(IllegalArgumentException.class, () -> map.put(1, -5));
+	}
+
+	@Test
+	public void testMatchesHashMapUnderRandomChurn() {
+		Map<Integer, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(5000) - 2500;
+			if (random.nextInt(3) == 0) {
+				Integer removed = expected.remove(key);
+				assertEquals((removed == null) ? IntIntMap.MISSING : removed, map.remove(key));
+			}
+			else {
+				Integer previous = expected.put(key, i);
+				assertEquals((previous == null) ? IntIntMap.MISSING : previous, map.put(key, i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (int key = -2500; key < 2500; key++) {
+			assertEquals(expected.getOrDefault(key, IntIntMap.MISSING).intValue(), map.get(key));
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(IntIntMap.MISSING, map.get(expected.keySet().iterator().next()));
+	}
+
+}
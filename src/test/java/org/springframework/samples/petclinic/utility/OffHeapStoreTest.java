@@ -0,0 +1,77 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStoreTest {
+
+	private static final long EXPIRES_AT = TimeUnit.MINUTES.toNanos(1);
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	@Test
+	public void testValueIsReadBackAsCopy() {
+		OffHeapStore<Integer, StringBuilder> store = new OffHeapStore<>(1024, nanos::get);
+		StringBuilder value = new StringBuilder("one");
+		assertTrue(store.put(1, value, EXPIRES_AT));
+
+		StringBuilder copy = store.getIfPresent(1);
+		assertNotSame(value, copy);
+		assertEquals("one", copy.toString());
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testOldestEntriesAreOverwrittenWhenFull() {
+		OffHeapStore<Integer, String> store = new OffHeapStore<>(1024, nanos::get);
+		for (int i = 0; i < 200; i++) {
+			store.put(i, "pet" + i, EXPIRES_AT);
+		}
+		assertNull(store.getIfPresent(0));
+		assertEquals("pet199", store.getIfPresent(199));
+		assertTrue(store.evictionCount() > 0);
+		assertTrue(store.usedBytes() <= store.capacity());
+		assertEquals(200 - store.evictionCount(), store.size());
+	}
+
+	@Test
+	public void testReplacedValueIsNotReturned() {
+		OffHeapStore<Integer, String> store = new OffHeapStore<>(1024, nanos::get);
+		store.put(1, "one", EXPIRES_AT);
+		store.put(1, "uno", EXPIRES_AT);
+		assertEquals("uno", store.getIfPresent(1));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testExpiredEntryIsNotReturnedAndIsCleanedUp() {
+		OffHeapStore<Integer, String> store = new OffHeapStore<>(1024, nanos::get);
+		store.put(1, "one", EXPIRES_AT);
+		nanos.set(EXPIRES_AT);
+		assertNull(store.getIfPresent(1));
+		store.cleanUp();
+		assertEquals(0, store.size());
+		assertEquals(0, store.usedBytes());
+	}
+
+	@Test
+	public void testInvalidateRemovesEntry() {
+		OffHeapStore<Integer, String> store = new OffHeapStore<>(1024, nanos::get);
+		store.put(1, "one", EXPIRES_AT);
+		store.invalidate(1);
+		assertNull(store.getIfPresent(1));
+		assertEquals(0, store.usedBytes());
+	}
+
+	@Test
+	public void testValueLargerThanBufferIsNotStored() {
+		OffHeapStore<Integer, String> store = new OffHeapStore<>(64, nanos::get);
+		assertFalse(store.put(1, new String(new char[100]), EXPIRES_AT));
+		assertNull(store.getIfPresent(1));
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.springframework.samples.petclinic.utility;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.samples.petclinic.owner.OwnerCursor;
+import org.springframework.samples.petclinic.owner.OwnerPage;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.OwnerSavedEvent;
+import org.springframework.samples.petclinic.owner.OwnerSuggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OwnerNameIndexTest {
+
+	private OwnerRepository owners;
+
+	private OwnerNameIndex index;
+
+	@BeforeEach
+	void setup() {
+		owners = mock(OwnerRepository.class);
+		when(owners.findAllIdsAndLastNames()).thenReturn(rows());
+		index = new OwnerNameIndex(owners);
+		index.start();
+	}
+
+	@Test
+	void testMatchesPrefixIgnoringCase() {
+		assertTrue(index.isReady());
+		assertEquals(10, index.size());
+		assertArrayEquals(new int[] { 2, 4 }, index.match("da", null, null, 10).ids);
+		assertArrayEquals(new int[] { 8, 10 }, index.match("E", null, null, 10).ids);
+		assertArrayEquals(new int[] { 2, 4 }, index.match("DAVIS", null, null, 10).ids);
+		assertArrayEquals(new int[0], index.match("Davy", null, null, 10).ids);
+		assertArrayEquals(new int[0], index.match("zz", null, null, 10).ids);
+	}
+
+	@Test
+	void testPagesForwardAndBackInNameThenIdOrder() {
+		OwnerNameIndex.Match first = index.match("", null, null, 4);
+		assertArrayEquals(new int[] { 7, 6, 2, 4 }, first.ids);
+		assertFalse(first.hasPrevious);
+		assertTrue(first.hasNext);
+
+		OwnerNameIndex.Match second = index.match("", new OwnerCursor("Davis", 4), null, 4);
+		assertArrayEquals(new int[] { 8, 10, 1, 5 }, second.ids);
+		assertTrue(second.hasPrevious);
+		assertTrue(second.hasNext);
+
+		OwnerNameIndex.Match last = index.match("", new OwnerCursor("McTavish", 5), null, 4);
+		assertArrayEquals(new int[] { 3, 9 }, last.ids);
+		assertFalse(last.hasNext);
+
+		OwnerNameIndex.Match back = index.match("", null, new OwnerCursor("Escobito", 8), 4);
+		assertArrayEquals(new int[] { 7, 6, 2, 4 }, back.ids);
+		assertFalse(back.hasPrevious);
+		assertTrue(back.hasNext);
+
+		OwnerNameIndex.Match davis = index.match("Davis", new OwnerCursor("Davis", 2), null, 4);
+		assertArrayEquals(new int[] { 4 }, davis.ids);
+		assertTrue(davis.hasPrevious);
+		assertFalse(davis.hasNext);
+	}
+
+	@Test
+	void testFollowsSavedOwners() {
+		index.onOwnerSaved(saved(2, "Zimmer"));
+		index.onOwnerSaved(saved(11, "Dahl"));
+		index.onOwnerSaved(saved(4, "davis"));
+		assertEquals(11, index.size());
+		assertArrayEquals(new int[] { 11, 4 }, index.match("Da", null, null, 10).ids);
+		assertArrayEquals(new int[] { 2 }, index.match("z", null, null, 10).ids);
+	}
+
+	@Test
+	void testResavingANameOnlyChangesItsCase() {
+		index.onOwnerSaved(saved(4, "Davis"));
+		assertEquals(10, index.size());
+		assertEquals(Arrays.asList(new OwnerSuggestion(2, "Davis"), new OwnerSuggestion(4, "Davis")),
+				index.suggest("Dav", 10));
+		index.onOwnerSaved(saved(4, "DAVIS"));
+		assertEquals(10, index.size());
+		assertEquals(Arrays.asList(new OwnerSuggestion(2, "Davis"), new OwnerSuggestion(4, "DAVIS")),
+				index.suggest("Dav", 10));
+	}
+
+	@Test
+	void testSuggestsLastNamesAsSaved() {
+		index.onOwnerSaved(saved(11, "davies"));
+		assertEquals(Arrays.asList(new OwnerSuggestion(11, "davies"), new OwnerSuggestion(2, "Davis"),
+				new OwnerSuggestion(4, "Davis")), index.suggest("dAv", 10));
+		assertEquals(Arrays.asList(new OwnerSuggestion(8, "Escobito")), index.suggest("E", 1));
+		assertEquals(Collections.emptyList(), index.suggest("", 10));
+		assertEquals(Collections.emptyList(), index.suggest("Davy", 10));
+	}
+
+	@Test
+	void testAppliesOwnersSavedWhileLoading() {
+		OwnerNameIndex loading = new OwnerNameIndex(owners);
+		when(owners.findAllIdsAndLastNames()).thenAnswer(invocation -> {
+			loading.onOwnerSaved(saved(1, "Aaron"));
+			assertFalse(loading.isReady());
+			return rows();
+		});
+		loading.start();
+		assertArrayEquals(new int[] { 1 }, loading.match("aa", null, null, 10).ids);
+		assertArrayEquals(new int[0], loading.match("Franklin", null, null, 10).ids);
+	}
+
+	@Test
+	void testKeepsOwnersSavedAfterTheEntriesArePublished() {
+		OwnerNameIndex loading = new OwnerNameIndex(owners);
+		// the load is logged once the entries are published, just before load() returns
+		AppenderBase<ILoggingEvent> saveWhenLoaded = new AppenderBase<ILoggingEvent>() {
+			@Override
+			protected void append(ILoggingEvent event) {
+				if (event.getMessage().startsWith("Indexed")) {
+					loading.onOwnerSaved(saved(1, "Aaron"));
+				}
+			}
+		};
+		Logger logger = (Logger) LoggerFactory.getLogger(OwnerNameIndex.class);
+		Level level = logger.getLevel();
+		logger.setLevel(Level.INFO);
+		saveWhenLoaded.start();
+		logger.addAppender(saveWhenLoaded);
+		try {
+			loading.start();
+		}
+		finally {
+			logger.detachAppender(saveWhenLoaded);
+			logger.setLevel(level);
+		}
+		assertArrayEquals(new int[] { 1 }, loading.match("aa", null, null, 10).ids);
+	}
+
+	@Test
+	void testIsNotReadyWhenLoadingFails() {
+		when(owners.findAllIdsAndLastNames()).thenThrow(new IllegalStateException("database down"));
+		OwnerNameIndex failed = new OwnerNameIndex(owners);
+		failed.start();
+		assertFalse(failed.isReady());
+		assertTrue(failed.isRunning());
+	}
+
+	@Test
+	void testFindPageLoadsOnlyThePageFromTheRepository() {
+		OwnerPage page = new OwnerPage(Collections.emptyList(), false, false);
+		when(owners.findPageByIds(Arrays.asList(2, 4), false, false)).thenReturn(page);
+		assertSame(page, index.findPage("dav", null, null, 20));
+	}
+
+	private static OwnerSavedEvent saved(int id, String lastName) {
+		return new OwnerSavedEvent(id, "Jo", lastName, "Madison", "6085551023");
+	}
+
+	private static List<Object[]> rows() {
+		String[] names = { "Franklin", "Davis", "Rodriquez", "Davis", "McTavish", "Coleman", "Black", "Escobito",
+				"Schroeder", "Estaban" };
+		List<Object[]> rows = new ArrayList<>();
+		for (int i = 0; i < names.length; i++) {
+			rows.add(new Object[] { i + 1, names[i] });
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the {@link OwnerSearchIndex} over a million generated owners: the latency of
+ * a search for an exact last name, a misspelled one, a telephone fragment, a city and a
+ * query over several fields, and the time to build the index from the rows on a pool of
+ * one to eight threads.
+ * <p>
+ * The last names repeat a few thousand times each, so a search for one reads long
+ * posting lists and shows what the posting budget saves. Sample-time mode reports the
+ * search latency percentiles, including p99. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=OwnerSearchIndexBenchmark}.
+ */
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class OwnerSearchIndexBenchmark {
+
+	private static final String[] FIRST_NAMES = { "George", "Betty", "Eduardo", "Harold", "Peter", "Jean", "Jeff",
+			"Maria", "David", "Carlos", "Anna", "James", "Linda", "Robert", "Susan", "Michael", "Karen", "William",
+			"Nancy", "Thomas", "Lisa", "Daniel", "Sandra", "Joseph", "Helen" };
+
+	private static final String[] NAME_STARTS = { "Frank", "Dav", "Rodr", "McTav", "Cole", "Black", "Escob", "Schro",
+			"Esta", "Mill", "John", "Will", "Brow", "Garc", "Mart", "Ander", "Tay", "Thom", "Hern", "Whit" };
+
+	private static final String[] NAME_ENDS = { "lin", "is", "iquez", "ish", "man", "er", "ito", "son", "ez", "ton",
+			"ford", "ley" };
+
+	private static final String[] CITIES = { "Madison", "Sun Prairie", "McFarland", "Windsor", "Monona", "Waunakee",
+			"Middleton", "Verona", "Fitchburg", "Oregon", "Stoughton", "Cottage Grove", "De Forest", "Mount Horeb" };
+
+	private static final int OWNERS = 1_000_000;
+
+	@State(Scope.Benchmark)
+	public static class Searching {
+
+		@Param({ "Franklin", "Frnaklin", "5551749", "Cottage Grove", "george davis windsor" })
+		String query;
+
+		OwnerSearchIndex index;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			OwnerRepository owners = mock(OwnerRepository.class);
+			when(owners.findAllSearchFields()).thenReturn(rows());
+			index = new OwnerSearchIndex(owners, 50000, 500);
+			index.start();
+			System.gc();
+		}
+
+	}
+
+	@State(Scope.Benchmark)
+	public static class Building {
+
+		@Param({ "1", "2", "4", "8" })
+		int parallelism;
+
+		List<Object[]> rows;
+
+		ForkJoinPool pool;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			rows = rows();
+			pool = new ForkJoinPool(parallelism);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			pool.shutdown();
+		}
+
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 5)
+	@Measurement(iterations = 5, time = 10)
+	public Object search(Searching searching) {
+		return searching.index.search(searching.query, 10);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public Object build(Building building) throws Exception {
+		return OwnerSearchIndex.build(building.rows, building.pool);
+	}
+
+	private static List<Object[]> rows() {
+		Random random = new Random(42);
+		List<Object[]> rows = new ArrayList<>(OWNERS);
+		for (int id = 1; id <= OWNERS; id++) {
+			String lastName = NAME_STARTS[random.nextInt(NAME_STARTS.length)]
+					+ NAME_ENDS[random.nextInt(NAME_ENDS.length)];
+			rows.add(new Object[] { id, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)], lastName,
+					CITIES[random.nextInt(CITIES.length)], String.format("608%07d", random.nextInt(10_000_000)) });
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,136 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.OwnerSavedEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OwnerSearchIndexTest {
+
+	private OwnerRepository owners;
+
+	private OwnerSearchIndex index;
+
+	@BeforeEach
+	void setup() {
+		owners = mock(OwnerRepository.class);
+		when(owners.findAllSearchFields()).thenReturn(rows());
+		index = new OwnerSearchIndex(owners, 200000, 2000);
+		index.start();
+	}
+
+	@Test
+	void testCutsWordsIntoPaddedTrigrams() {
+		assertEquals(2, OwnerSearchIndex.trigrams("Jo").length);
+		assertEquals(1, OwnerSearchIndex.trigrams("j").length);
+		assertEquals(4, OwnerSearchIndex.trigrams("ab, cd").length);
+		assertEquals(0, OwnerSearchIndex.trigrams(" - ").length);
+		assertArrayEquals(OwnerSearchIndex.trigrams("jose"), OwnerSearchIndex.trigrams("JOS\u00c9"));
+	}
+
+	@Test
+	void testRanksOwnersAcrossFieldsAndMisspellings() {
+		assertTrue(index.isReady());
+		assertEquals(10, index.size());
+		assertEquals(1, ids(index.search("Frankin", 5)).get(0).intValue());
+		assertEquals(ids(index.search("davis", 2)), ids(index.search("Davis", 2)));
+		assertTrue(ids(index.search("davis", 2)).containsAll(Arrays.asList(2, 4)));
+		assertEquals(4, ids(index.search("davis windsor", 5)).get(0).intValue());
+		assertEquals(2, ids(index.search("5551749", 5)).get(0).intValue());
+		assertEquals(4, ids(index.search("Madisson", 10)).size());
+		assertEquals(0, index.search("qqqq", 10).size());
+		assertEquals(1, index.search("madison", 1).size());
+	}
+
+	@Test
+	void testBoundsTheOwnersScored() {
+		OwnerSearchIndex bounded = new OwnerSearchIndex(owners, 200000, 1);
+		bounded.start();
+		assertEquals(1, bounded.search("madison", 10).size());
+		OwnerSearchIndex starved = new OwnerSearchIndex(owners, 1, 2000);
+		starved.start();
+		assertEquals(1, starved.search("madison", 10).size());
+	}
+
+	@Test
+	void testFollowsSavedOwners() {
+		index.onOwnerSaved(new OwnerSavedEvent(2, "Betty", "Zimmerman", "Sun Prairie", "6085551749"));
+		index.onOwnerSaved(new OwnerSavedEvent(11, "Hans", "Davies", "Verona", "6085550000"));
+		assertEquals(11, index.size());
+		assertEquals(2, ids(index.search("zimerman", 5)).get(0).intValue());
+		assertEquals(4, ids(index.search("davis", 5)).get(0).intValue());
+		assertFalse(ids(index.search("davis", 5)).contains(2));
+		assertTrue(ids(index.search("davis", 5)).contains(11));
+	}
+
+	@Test
+	void testRebuildsPostingsOnceManyAreStale() throws InterruptedException {
+		for (int round = 0; round < 5; round++) {
+			for (int id = 1; id <= 600; id++) {
+				index.onOwnerSaved(new OwnerSavedEvent(id, "First" + id, "Name" + round + "x" + id, "Town", "555"));
+			}
+		}
+		assertEquals(600, index.size());
+		assertEquals(42, ids(index.search("Name4x42", 1)).get(0).intValue());
+		assertEquals(0, index.search("Franklin", 1).size());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (index.rebuildCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(index.rebuildCount() > 0);
+		index.onOwnerSaved(new OwnerSavedEvent(601, "Hans", "Davies", "Verona", "6085550000"));
+		assertEquals(601, index.size());
+		assertEquals(42, ids(index.search("Name4x42", 1)).get(0).intValue());
+		assertEquals(601, ids(index.search("davies", 1)).get(0).intValue());
+		assertEquals(0, index.search("Franklin", 1).size());
+	}
+
+	@Test
+	void testBuildsTheSamePostingsWhateverTheParallelism() throws Exception {
+		List<Object[]> rows = new ArrayList<>();
+		for (int id = 0; id < 40000; id++) {
+			rows.add(new Object[] { id, "First" + id, "Last" + (id % 977), "City" + (id % 31), "608" + id });
+		}
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool four = new ForkJoinPool(4);
+		try {
+			assertTrue(Arrays.deepEquals(OwnerSearchIndex.build(rows, one).postings,
+					OwnerSearchIndex.build(rows, four).postings));
+		}
+		finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+
+	private static List<Integer> ids(List<OwnerSearchIndex.Hit> hits) {
+		return hits.stream().map(OwnerSearchIndex.Hit::getOwnerId).collect(Collectors.toList());
+	}
+
+	private static List<Object[]> rows() {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 1, "George", "Franklin", "Madison", "6085551023" });
+		rows.add(new Object[] { 2, "Betty", "Davis", "Sun Prairie", "6085551749" });
+		rows.add(new Object[] { 3, "Eduardo", "Rodriquez", "McFarland", "6085558763" });
+		rows.add(new Object[] { 4, "Harold", "Davis", "Windsor", "6085553198" });
+		rows.add(new Object[] { 5, "Peter", "McTavish", "Madison", "6085552765" });
+		rows.add(new Object[] { 6, "Jean", "Coleman", "Monona", "6085552654" });
+		rows.add(new Object[] { 7, "Jeff", "Black", "Monona", "6085555387" });
+		rows.add(new Object[] { 8, "Maria", "Escobito", "Madison", "6085557683" });
+		rows.add(new Object[] { 9, "David", "Schroeder", "Madison", "6085559435" });
+		rows.add(new Object[] { 10, "Carlos", "Estaban", "Waunakee", "6085555487" });
+		return rows;
+	}
+
+}
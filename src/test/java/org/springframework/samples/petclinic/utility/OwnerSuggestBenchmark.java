@@ -0,0 +1,111 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.OwnerSavedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the latency of the last name suggestions of the {@link OwnerNameIndex} under
+ * concurrent typing: every operation takes a random owner's last name and suggests for a
+ * prefix of it as a keystroke would, from one letter to the whole name.
+ * <p>
+ * {@code typing} runs on eight threads; {@code typingWhileSaving} runs seven typing
+ * threads next to one that keeps saving owners, each save copying the index, to show the
+ * suggestions do not wait for saves. Sample-time mode reports the latency percentiles;
+ * the p99 of a suggestion should stay in the tens of microseconds at a million owners.
+ * Run with {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=OwnerSuggestBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class OwnerSuggestBenchmark {
+
+	private static final String[] NAME_STARTS = { "Frank", "Dav", "Rodr", "McTav", "Cole", "Black", "Escob", "Schro",
+			"Esta", "Mill", "John", "Will", "Brow", "Garc", "Mart", "Ander", "Tay", "Thom", "Hern", "Whit" };
+
+	private static final String[] NAME_ENDS = { "lin", "is", "iquez", "ish", "man", "er", "ito", "son", "ez", "ton",
+			"ford", "ley" };
+
+	@Param({ "1000000" })
+	int owners;
+
+	@Param({ "10" })
+	int suggestions;
+
+	private String[] lastNames;
+
+	private OwnerNameIndex index;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		lastNames = new String[owners];
+		List<Object[]> rows = new ArrayList<>(owners);
+		for (int id = 0; id < owners; id++) {
+			// a thousand variants of each name, so a short prefix matches many owners
+			lastNames[id] = NAME_STARTS[random.nextInt(NAME_STARTS.length)]
+					+ NAME_ENDS[random.nextInt(NAME_ENDS.length)] + random.nextInt(1000);
+			rows.add(new Object[] { id, lastNames[id] });
+		}
+		OwnerRepository repository = mock(OwnerRepository.class);
+		when(repository.findAllIdsAndLastNames()).thenReturn(rows);
+		index = new OwnerNameIndex(repository);
+		index.start();
+		System.gc();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object typing() {
+		return keystroke();
+	}
+
+	@Benchmark
+	@Group("typingWhileSaving")
+	@GroupThreads(7)
+	public Object suggest() {
+		return keystroke();
+	}
+
+	@Benchmark
+	@Group("typingWhileSaving")
+	@GroupThreads(1)
+	public void save() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int id = random.nextInt(owners);
+		index.onOwnerSaved(new OwnerSavedEvent(id, "Jo", lastNames[random.nextInt(owners)], "Madison", "6085551023"));
+	}
+
+	private Object keystroke() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String lastName = lastNames[random.nextInt(owners)];
+		return index.suggest(lastName.substring(0, 1 + random.nextInt(lastName.length())), suggestions);
+	}
+
+}
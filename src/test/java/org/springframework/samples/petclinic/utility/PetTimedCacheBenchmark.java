@@ -0,0 +1,152 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.owner.Owner;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.owner.PetType;
+import org.springframework.samples.petclinic.visit.Visit;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookups in a {@link TimedCache} of pets that holds every pet on the heap with
+ * one that keeps 5% of them on the heap and the rest in the off-heap tier.
+ * <p>
+ * Sample-time mode reports latency percentiles, including p99; the benchmark profile
+ * adds {@code -prof gc} for allocation rates and each trial prints the time the JVM spent
+ * in garbage collection. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=PetTimedCacheBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:MaxDirectMemorySize=1g" })
+@Threads(4)
+public class PetTimedCacheBenchmark {
+
+	private static final long OFF_HEAP_BYTES = 768L * 1024 * 1024;
+
+	@Param({ "300000" })
+	int pets;
+
+	@Param({ "on-heap", "off-heap" })
+	String tier;
+
+	private final PetType cat = newType();
+
+	private TimedCache<Integer, Pet> cache;
+
+	private long gcMillisBefore;
+
+	private long gcCountBefore;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		boolean offHeap = "off-heap".equals(tier);
+		cache = TimedCache.<Integer, Pet>builder("pets", this::newPet)
+			.expireAfterWrite(TimeUnit.HOURS.toMillis(1))
+			.maximumSize(offHeap ? pets / 20 : pets)
+			.offHeap(offHeap ? OFF_HEAP_BYTES : 0)
+			.build();
+		for (int id = 0; id < pets; id++) {
+			cache.put(id, newPet(id));
+		}
+		System.gc();
+		gcMillisBefore = gcMillis();
+		gcCountBefore = gcCount();
+	}
+
+	@TearDown(Level.Trial)
+	public void reportGarbageCollection() {
+		System.out.printf("%n%s: %d collections, %d ms in GC, %d entries on heap%n", tier,
+				gcCount() - gcCountBefore, gcMillis() - gcMillisBefore, cache.size());
+	}
+
+	@Benchmark
+	public Pet get() {
+		return cache.get(ThreadLocalRandom.current().nextInt(pets));
+	}
+
+	/**
+	 * One in twenty operations saves a pet, which keeps replacing entries the way edits
+	 * and reloads do in the running application.
+	 */
+	@Benchmark
+	public Pet getWithUpdates() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int id = random.nextInt(pets);
+		if (random.nextInt(20) == 0) {
+			Pet pet = newPet(id);
+			cache.put(id, pet);
+			return pet;
+		}
+		return cache.get(id);
+	}
+
+	private Pet newPet(int id) {
+		Owner owner = new Owner();
+		owner.setId(id);
+		owner.setFirstName("George");
+		owner.setLastName("Franklin" + id);
+		owner.setAddress("110 W. Liberty St.");
+		owner.setCity("Madison");
+		owner.setTelephone("6085551023");
+		Pet pet = new Pet();
+		pet.setId(id);
+		pet.setName("Leo" + id);
+		pet.setBirthDate(LocalDate.of(2010, 9, 7));
+		pet.setType(cat);
+		owner.addPet(pet);
+		for (int i = 0; i < 3; i++) {
+			Visit visit = new Visit();
+			visit.setId(id * 3 + i);
+			visit.setDate(LocalDate.of(2013, 1, 1 + i));
+			visit.setDescription("rabies shot");
+			pet.addVisit(visit);
+		}
+		return pet;
+	}
+
+	private static PetType newType() {
+		PetType cat = new PetType();
+		cat.setId(1);
+		cat.setName("cat");
+		return cat;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+}
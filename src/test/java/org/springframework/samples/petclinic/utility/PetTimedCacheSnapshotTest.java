@@ -0,0 +1,130 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.owner.PetRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PetTimedCacheSnapshotTest {
+
+	private Path directory;
+
+	private Path file;
+
+	private PetRepository repository;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("petclinic");
+		file = directory.resolve("pets.snapshot");
+		repository = mock(PetRepository.class);
+		when(repository.findById(1)).thenReturn(pet(1));
+		when(repository.findById(2)).thenReturn(pet(2));
+		when(repository.findById(3)).thenReturn(pet(3));
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path path : (Iterable<Path>) files::iterator) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testHottestPetsAreReloadedInBatchesAfterRestart() {
+		PetTimedCache cache = new PetTimedCache(60000, repository);
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(3);
+		PetTimedCacheSnapshot snapshot = new PetTimedCacheSnapshot(cache, file.toString(), 2, 1);
+		snapshot.start();
+		snapshot.stop();
+		assertTrue(Files.exists(file));
+
+		when(repository.findByIdIn(new HashSet<>(Arrays.asList(3)))).thenReturn(Arrays.asList(pet(3)));
+		when(repository.findByIdIn(new HashSet<>(Arrays.asList(1)))).thenReturn(Arrays.asList(pet(1)));
+		when(repository.findByIdIn(new HashSet<>(Arrays.asList(2)))).thenReturn(Arrays.asList(pet(2)));
+		PetTimedCache restarted = new PetTimedCache(60000, repository);
+		PetTimedCacheSnapshot warmer = new PetTimedCacheSnapshot(restarted, file.toString(), 2, 1);
+		warmer.start();
+
+		assertEquals(2, warmer.warmedUpPets());
+		assertEquals(2, restarted.size());
+		verify(repository, times(1)).findByIdIn(new HashSet<>(Arrays.asList(3)));
+	}
+
+	@Test
+	public void testUnreadableSnapshotMeansColdStart() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3 });
+		PetTimedCache cache = new PetTimedCache(60000, repository);
+		PetTimedCacheSnapshot warmer = new PetTimedCacheSnapshot(cache, file.toString(), 10, 10);
+		warmer.start();
+		assertTrue(warmer.isRunning());
+		assertEquals(0, warmer.warmedUpPets());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEmptyFileSettingDisablesSnapshots() throws IOException {
+		PetTimedCache cache = new PetTimedCache(60000, repository);
+		cache.get(1);
+		PetTimedCacheSnapshot snapshot = new PetTimedCacheSnapshot(cache, "", 10, 10);
+		snapshot.start();
+		snapshot.stop();
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	public void testLargerSnapshotIsCutToMaximumSize() {
+		PetTimedCache cache = new PetTimedCache(60000, repository);
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(3);
+		PetTimedCacheSnapshot snapshot = new PetTimedCacheSnapshot(cache, file.toString(), 3, 10);
+		snapshot.start();
+		snapshot.stop();
+
+		when(repository.findByIdIn(new HashSet<>(Arrays.asList(3)))).thenReturn(Arrays.asList(pet(3)));
+		PetTimedCache restarted = new PetTimedCache(60000, repository);
+		PetTimedCacheSnapshot warmer = new PetTimedCacheSnapshot(restarted, file.toString(), 1, 10);
+		warmer.start();
+
+		assertEquals(1, warmer.warmedUpPets());
+		assertEquals(1, restarted.size());
+	}
+
+	@Test
+	public void testBatchSizeMustBePositive() {
+		PetTimedCache cache = new PetTimedCache(60000, repository);
+		assertThrows(IllegalArgumentException.class, () -> new PetTimedCacheSnapshot(cache, file.toString(), 10, 0));
+	}
+
+	private static Pet pet(int id) {
+		Pet pet = new Pet();
+		pet.setId(id);
+		pet.setName("pet" + id);
+		return pet;
+	}
+
+}
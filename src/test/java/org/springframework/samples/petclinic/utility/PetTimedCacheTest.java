@@ -1,7 +1,316 @@
 package org.springframework.samples.petclinic.utility;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.owner.PetRepository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
-// todo
 class PetTimedCacheTest {
+
+	private PetRepository repository;
+
+	private PetTimedCache cache;
+
+	private ExecutorService executor;
+
+	private Pet pet;
+
+	@BeforeEach
+	public void setup() {
+		repository = mock(PetRepository.class);
+		cache = new PetTimedCache(60000, repository);
+		executor = Executors.newFixedThreadPool(4);
+		pet = new Pet();
+		pet.setId(1);
+		pet.setName("Leo");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSecondGetIsServedFromCache() {
+		when(repository.findById(1)).thenReturn(pet);
+		assertSame(pet, cache.get(1));
+		assertSame(pet, cache.get(1));
+		verify(repository, times(1)).findById(1);
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneLoad() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(repository.findById(1)).thenAnswer(invocation -> {
+			loading.countDown();
+			release.await();
+			return pet;
+		});
+
+		List<Future<Pet>> callers = new ArrayList<>();
+		callers.add(executor.submit(() -> cache.get(1)));
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 3; i++) {
+			callers.add(executor.submit(() -> cache.get(1)));
+		}
+		awaitCollapsedLoads(3);
+		release.countDown();
+
+		for (Future<Pet> caller : callers) {
+			assertSame(pet, caller.get(5, TimeUnit.SECONDS));
+		}
+		verify(repository, times(1)).findById(1);
+		assertEquals(3, cache.collapsedLoadCount());
+	}
+
+	@Test
+	public void testLoadFailureReachesEveryWaiterAndIsNotCached() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(repository.findById(1)).thenAnswer(invocation -> {
+			loading.countDown();
+			release.await();
+			throw new IllegalStateException("database down");
+		}).thenReturn(pet);
+
+		Future<Pet> first = executor.submit(() -> cache.get(1));
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		Future<Pet> second = executor.submit(() -> cache.get(1));
+		awaitCollapsedLoads(1);
+		release.countDown();
+
+		for (Future<Pet> caller : Arrays.asList(first, second)) {
+			ExecutionException failure = assertThrows(ExecutionException.class, () -> caller.get(5, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof IllegalStateException);
+		}
+		assertSame(pet, cache.get(1));
+	}
+
+	@Test
+	public void testSaveReplacesCachedPet() {
+		when(repository.findById(1)).thenReturn(pet);
+		cache.get(1);
+		Pet renamed = new Pet();
+		renamed.setId(1);
+		renamed.setName("Leo the Second");
+		cache.save(renamed);
+		verify(repository).save(renamed);
+		assertSame(renamed, cache.get(1));
+		verify(repository, times(1)).findById(1);
+	}
+
+	@Test
+	public void testSlowLoadDoesNotOverwriteConcurrentSave() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(repository.findById(1)).thenAnswer(invocation -> {
+			loading.countDown();
+			release.await();
+			return pet;
+		});
+
+		Future<Pet> slowLoad = executor.submit(() -> cache.get(1));
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		Pet saved = new Pet();
+		saved.setId(1);
+		saved.setName("Leo the Second");
+		cache.save(saved);
+		release.countDown();
+
+		assertSame(pet, slowLoad.get(5, TimeUnit.SECONDS));
+		assertSame(saved, cache.get(1));
+	}
+
+	@Test
+	public void testSaveInTransactionIsCachedAfterCommit() {
+		when(repository.findById(1)).thenReturn(pet);
+		cache.get(1);
+		Pet renamed = new Pet();
+		renamed.setId(1);
+		renamed.setName("Leo the Second");
+		List<TransactionSynchronization> synchronizations = saveInTransaction(renamed);
+		synchronizations.forEach(TransactionSynchronization::afterCommit);
+		synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		assertSame(renamed, cache.get(1));
+		verify(repository, times(1)).findById(1);
+	}
+
+	@Test
+	public void testOverlappingSavesInTransactionsAreNotCachedOutOfOrder() {
+		when(repository.findById(1)).thenReturn(pet);
+		Pet first = new Pet();
+		first.setId(1);
+		first.setName("Leo the Second");
+		Pet second = new Pet();
+		second.setId(1);
+		second.setName("Leo the Third");
+		List<TransactionSynchronization> firstTransaction = saveInTransaction(first);
+		List<TransactionSynchronization> secondTransaction = saveInTransaction(second);
+		// the second transaction commits first while the first one is still open
+		secondTransaction.forEach(TransactionSynchronization::afterCommit);
+		secondTransaction.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		assertSame(pet, cache.get(1));
+		firstTransaction.forEach(TransactionSynchronization::afterCommit);
+		firstTransaction.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		assertSame(first, cache.get(1));
+	}
+
+	private List<TransactionSynchronization> saveInTransaction(Pet pet) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			cache.save(pet);
+			return new ArrayList<>(TransactionSynchronizationManager.getSynchronizations());
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	public void testEntryCloseToExpiryIsRefreshedInBackground() throws Exception {
+		CacheScheduler scheduler = new CacheScheduler(1000, 1);
+		scheduler.start();
+		try {
+			PetTimedCache refreshingCache = new PetTimedCache(60000, 100, 59900, 0, 0, 0, scheduler, repository);
+			Pet reloaded = new Pet();
+			reloaded.setId(1);
+			reloaded.setName("Leo, reloaded");
+			when(repository.findById(1)).thenReturn(pet).thenReturn(reloaded);
+
+			assertSame(pet, refreshingCache.get(1));
+			Thread.sleep(200);
+			assertSame(pet, refreshingCache.get(1));
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (refreshingCache.get(1) != reloaded && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertSame(reloaded, refreshingCache.get(1));
+			assertEquals(1, refreshingCache.missCount());
+			assertTrue(refreshingCache.refreshCount() >= 1);
+		}
+		finally {
+			scheduler.stop();
+		}
+	}
+
+	@Test
+	public void testGetAllLoadsMissesWithOneQuery() {
+		Pet other = new Pet();
+		other.setId(2);
+		other.setName("Basil");
+		when(repository.findById(1)).thenReturn(pet);
+		when(repository.findByIdIn(new HashSet<>(Arrays.asList(2, 3)))).thenReturn(Collections.singletonList(other));
+		cache.get(1);
+
+		Map<Integer, Pet> pets = cache.getAll(Arrays.asList(3, 2, 1, 2));
+
+		assertEquals(Arrays.asList(2, 1), new ArrayList<>(pets.keySet()));
+		assertSame(other, pets.get(2));
+		assertSame(pet, pets.get(1));
+		assertSame(other, cache.get(2));
+		verify(repository, times(1)).findByIdIn(new HashSet<>(Arrays.asList(2, 3)));
+	}
+
+	@Test
+	public void testPetEvictedFromHeapIsServedFromOffHeap() {
+		PetTimedCache tieredCache = new PetTimedCache(60000, 1, 0, 1 << 20, 0, 0, null, repository);
+		Pet other = new Pet();
+		other.setId(2);
+		other.setName("Basil");
+		when(repository.findById(1)).thenReturn(pet);
+
+		assertSame(pet, tieredCache.get(1));
+		tieredCache.save(other);
+		Pet copy = tieredCache.get(1);
+
+		assertNotSame(pet, copy);
+		assertEquals("Leo", copy.getName());
+		assertEquals(1, tieredCache.offHeapHitCount());
+		verify(repository, times(1)).findById(1);
+	}
+
+	@Test
+	public void testUnknownIdIsRememberedAsAbsent() {
+		PetTimedCache negativeCache = new PetTimedCache(60000, 100, 0, 0, 60000, 0, null, repository);
+		assertNull(negativeCache.get(99));
+		assertNull(negativeCache.get(99));
+		verify(repository, times(1)).findById(99);
+		assertEquals(1, negativeCache.negativeHitCount());
+	}
+
+	@Test
+	public void testSavedPetIsNoLongerRememberedAsAbsent() {
+		PetTimedCache negativeCache = new PetTimedCache(60000, 100, 0, 0, 60000, 0, null, repository);
+		assertNull(negativeCache.get(1));
+		negativeCache.save(pet);
+		assertSame(pet, negativeCache.get(1));
+	}
+
+	@Test
+	public void testBloomFilterRejectsIdsThatNeverExisted() {
+		Pet added = new Pet();
+		added.setId(5);
+		when(repository.findAllIds()).thenReturn(Collections.singletonList(1));
+		when(repository.findById(1)).thenReturn(pet);
+		PetTimedCache guardedCache = new PetTimedCache(60000, 100, 0, 0, 0, 100, null, repository);
+
+		assertNull(guardedCache.get(99));
+		assertSame(pet, guardedCache.get(1));
+		guardedCache.save(added);
+		assertSame(added, guardedCache.get(5));
+
+		verify(repository, times(0)).findById(99);
+		assertEquals(1, guardedCache.rejectedCount());
+	}
+
+	@Test
+	public void testStatisticsArePublishedAsMeters() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		cache.bindTo(registry);
+		when(repository.findById(1)).thenReturn(pet);
+		cache.get(1);
+		cache.get(1);
+		cache.get(2);
+
+		assertEquals(1.0, registry.get("petclinic.cache.gets").tag("result", "hit").functionCounter().count());
+		assertEquals(2.0, registry.get("petclinic.cache.gets").tag("result", "miss").functionCounter().count());
+		assertEquals(2.0, registry.get("petclinic.cache.loads").tag("result", "success").functionCounter().count());
+		assertEquals(2, registry.get("petclinic.cache.load.duration").timer().count());
+		assertEquals(1.0, registry.get("petclinic.cache.size").gauge().value());
+	}
+
+	private void awaitCollapsedLoads(long expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (cache.collapsedLoadCount() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, cache.collapsedLoadCount());
+	}
+
 }
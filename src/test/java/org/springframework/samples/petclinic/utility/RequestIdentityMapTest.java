@@ -0,0 +1,101 @@
+package org.springframework.samples.petclinic.utility;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.visit.Visit;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestIdentityMapTest {
+
+	private final RequestIdentityMap identityMap = new RequestIdentityMap();
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private final Function<Integer, Pet> loader = id -> {
+		loads.incrementAndGet();
+		Pet pet = new Pet();
+		pet.setId(id);
+		return pet;
+	};
+
+	private ServletRequestAttributes request;
+
+	@BeforeEach
+	public void setup() {
+		identityMap.bindTo(registry);
+		request = new ServletRequestAttributes(new MockHttpServletRequest());
+		RequestContextHolder.setRequestAttributes(request);
+	}
+
+	@AfterEach
+	public void teardown() {
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	public void testRepeatedLookupsWithinRequestLoadOnce() {
+		Pet first = identityMap.find(Pet.class, 1, loader);
+		assertSame(first, identityMap.find(Pet.class, 1, loader));
+		assertSame(first, identityMap.find(Pet.class, 1, loader));
+		identityMap.find(Pet.class, 2, loader);
+		assertEquals(2, loads.get());
+		assertEquals(2, identityMap.deduplicatedLoads());
+
+		request.requestCompleted();
+		DistributionSummary summary = registry.get("petclinic.identity-map.deduplicated").summary();
+		assertEquals(1, summary.count());
+		assertEquals(2.0, summary.totalAmount());
+	}
+
+	@Test
+	public void testEachRequestStartsEmpty() {
+		Pet first = identityMap.find(Pet.class, 1, loader);
+		request.requestCompleted();
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+		assertNotSame(first, identityMap.find(Pet.class, 1, loader));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testLookupsOutsideRequestGoToLoader() {
+		RequestContextHolder.resetRequestAttributes();
+		assertNotSame(identityMap.find(Pet.class, 1, loader), identityMap.find(Pet.class, 1, loader));
+		assertEquals(2, loads.get());
+		assertEquals(0, identityMap.deduplicatedLoads());
+	}
+
+	@Test
+	public void testMergeAndRegisterReuseKnownInstances() {
+		Visit known = visit(1);
+		identityMap.register(Visit.class, known);
+		identityMap.register(Visit.class, new Visit());
+		List<Visit> merged = identityMap.merge(Visit.class, Arrays.asList(visit(1), visit(2), new Visit()));
+		assertSame(known, merged.get(0));
+		assertEquals(Integer.valueOf(2), merged.get(1).getId());
+		assertTrue(merged.get(2).isNew());
+		assertSame(merged.get(1), identityMap.merge(Visit.class, Arrays.asList(visit(2))).get(0));
+		assertEquals(2, identityMap.deduplicatedLoads());
+	}
+
+	private static Visit visit(int id) {
+		Visit visit = new Visit();
+		visit.setId(id);
+		return visit;
+	}
+
+}
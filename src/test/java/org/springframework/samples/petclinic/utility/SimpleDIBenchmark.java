@@ -0,0 +1,124 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of looking up a singleton service with one dependency through
+ * {@link SimpleDI#getInstanceOf}, through Spring's {@code ApplicationContext.getBean},
+ * and of creating it with plain reflection on every call, the way a naive container
+ * would. The prototype benchmarks create a new instance per lookup in each container,
+ * and the thread benchmark looks up a thread-scoped one. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=SimpleDIBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SimpleDIBenchmark {
+
+	private SimpleDI container;
+
+	private GenericApplicationContext context;
+
+	private Constructor<Service> constructor;
+
+	private Repository repository;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		container = SimpleDI.getDIContainer();
+		container.getInstanceOf(Service.class);
+		context = new GenericApplicationContext();
+		context.registerBean(Repository.class);
+		context.registerBean(Service.class);
+		context.registerBean(Report.class, definition -> definition.setScope("prototype"));
+		context.refresh();
+		container.provideByConstructor(Report.class, Report.class, SimpleDI.Scope.PROTOTYPE);
+		container.provideByConstructor(Helper.class, Helper.class, SimpleDI.Scope.THREAD);
+		constructor = Service.class.getConstructor(Repository.class);
+		repository = new Repository();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object simpleDi() throws Exception {
+		return container.getInstanceOf(Service.class);
+	}
+
+	@Benchmark
+	public Object springGetBean() {
+		return context.getBean(Service.class);
+	}
+
+	@Benchmark
+	public Object reflection() throws Exception {
+		return constructor.newInstance(repository);
+	}
+
+	@Benchmark
+	public Object simpleDiPrototype() throws Exception {
+		return container.getInstanceOf(Report.class);
+	}
+
+	@Benchmark
+	public Object springGetBeanPrototype() {
+		return context.getBean(Report.class);
+	}
+
+	@Benchmark
+	public Object simpleDiThread() throws Exception {
+		return container.getInstanceOf(Helper.class);
+	}
+
+	public static class Repository {
+
+	}
+
+	public static class Service {
+
+		private final Repository repository;
+
+		public Service(Repository repository) {
+			this.repository = repository;
+		}
+
+	}
+
+	public static class Report {
+
+		private final Repository repository;
+
+		public Report(Repository repository) {
+			this.repository = repository;
+		}
+
+	}
+
+	public static class Helper {
+
+	}
+
+}
@@ -0,0 +1,155 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time and the bytes allocated to start a container with a small graph of
+ * services and create them all, when the services are registered by the wiring index
+ * generated for their {@link Injectable} annotations, by hand through
+ * {@link SimpleDI#provideByAConstructorFunction}, and through their constructors with
+ * {@link SimpleDI#provideByConstructor}, which reflects on them. Each fork measures a cold
+ * start first, so look at the first iteration as well as the average. Run with
+ * {@code ./mvnw -P benchmark verify -DskipTests -Dbenchmark=SimpleDIStartupBenchmark},
+ * which reports the allocated bytes as {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 200, batchSize = 1)
+@Fork(10)
+public class SimpleDIStartupBenchmark {
+
+	private static final SimpleDI.Scope SINGLETON = SimpleDI.Scope.SINGLETON;
+
+	@Benchmark
+	public Object wiringIndex() throws Exception {
+		SimpleDIContainer container = new SimpleDIContainer();
+		container.loadWiringIndexes(SimpleDIStartupBenchmark.class.getClassLoader());
+		return container.getInstanceOf(Controller.class);
+	}
+
+	@Benchmark
+	public Object byHand() throws Exception {
+		SimpleDIContainer c = new SimpleDIContainer();
+		c.provideByAConstructorFunction(Clock.class, Clock::new, SINGLETON);
+		c.provideByAConstructorFunction(Settings.class, Settings::new, SINGLETON);
+		c.provideByAConstructorFunction(DataSource.class,
+				() -> new DataSource((Settings) c.getInstanceOf(Settings.class)), SINGLETON);
+		c.provideByAConstructorFunction(OwnerStore.class,
+				() -> new OwnerStore((DataSource) c.getInstanceOf(DataSource.class)), SINGLETON);
+		c.provideByAConstructorFunction(PetStore.class,
+				() -> new PetStore((DataSource) c.getInstanceOf(DataSource.class)), SINGLETON);
+		c.provideByAConstructorFunction(VisitStore.class,
+				() -> new VisitStore((DataSource) c.getInstanceOf(DataSource.class)), SINGLETON);
+		c.provideByAConstructorFunction(Cache.class,
+				() -> new Cache((Settings) c.getInstanceOf(Settings.class), (Clock) c.getInstanceOf(Clock.class)),
+				SINGLETON);
+		c.provideByAConstructorFunction(OwnerService.class,
+				() -> new OwnerService((OwnerStore) c.getInstanceOf(OwnerStore.class),
+						(PetStore) c.getInstanceOf(PetStore.class), (Cache) c.getInstanceOf(Cache.class)),
+				SINGLETON);
+		c.provideByAConstructorFunction(VisitService.class,
+				() -> new VisitService((VisitStore) c.getInstanceOf(VisitStore.class),
+						(Clock) c.getInstanceOf(Clock.class)),
+				SINGLETON);
+		c.provideByAConstructorFunction(Controller.class,
+				() -> new Controller((OwnerService) c.getInstanceOf(OwnerService.class),
+						(VisitService) c.getInstanceOf(VisitService.class)),
+				SINGLETON);
+		return c.getInstanceOf(Controller.class);
+	}
+
+	@Benchmark
+	public Object byConstructor() throws Exception {
+		SimpleDIContainer container = new SimpleDIContainer();
+		for (Class<?> type : new Class<?>[] { Clock.class, Settings.class, DataSource.class, OwnerStore.class,
+				PetStore.class, VisitStore.class, Cache.class, OwnerService.class, VisitService.class,
+				Controller.class }) {
+			container.provideByConstructor(type, type, SINGLETON);
+		}
+		return container.getInstanceOf(Controller.class);
+	}
+
+	@Injectable
+	public static class Clock {
+
+	}
+
+	@Injectable
+	public static class Settings {
+
+	}
+
+	@Injectable
+	public static class DataSource {
+
+		public DataSource(Settings settings) {
+		}
+
+	}
+
+	@Injectable
+	public static class OwnerStore {
+
+		public OwnerStore(DataSource dataSource) {
+		}
+
+	}
+
+	@Injectable
+	public static class PetStore {
+
+		public PetStore(DataSource dataSource) {
+		}
+
+	}
+
+	@Injectable
+	public static class VisitStore {
+
+		public VisitStore(DataSource dataSource) {
+		}
+
+	}
+
+	@Injectable
+	public static class Cache {
+
+		public Cache(Settings settings, Clock clock) {
+		}
+
+	}
+
+	@Injectable
+	public static class OwnerService {
+
+		public OwnerService(OwnerStore owners, PetStore pets, Cache cache) {
+		}
+
+	}
+
+	@Injectable
+	public static class VisitService {
+
+		public VisitService(VisitStore visits, Clock clock) {
+		}
+
+	}
+
+	@Injectable
+	public static class Controller {
+
+		public Controller(OwnerService owners, VisitService visits) {
+		}
+
+	}
+
+}
@@ -1,21 +1,28 @@
 package org.springframework.samples.petclinic.utility;
 
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.samples.petclinic.owner.PetRepository;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
 
-// todo pass these tests
-@Disabled
 class SimpleDITest {
 
 	@Test
 	public void testProvideByInstance() throws Exception {
-		SimpleDI diContainer = SimpleDI.getDIContainer();
+		SimpleDI diContainer = new SimpleDIContainer();
 		PetRepository petRepoMock = mock(PetRepository.class);
 		diContainer.provideByInstance(PetRepository.class, petRepoMock);
 		PetRepository diProvidedRepo = (PetRepository) diContainer.getInstanceOf(PetRepository.class);
@@ -24,7 +31,7 @@ class SimpleDITest {
 
 	@Test
 	public void testProvideByFunction() throws Exception {
-		SimpleDI simpleDi = SimpleDI.getDIContainer();
+		SimpleDI simpleDi = new SimpleDIContainer();
 		simpleDi.provideByAConstructorFunction(PetRepository.class, new Callable<Object>() {
 			@Override
 			public Object call() throws Exception {
@@ -33,4 +40,218 @@ class SimpleDITest {
 		});
 		assertNotNull(simpleDi.getInstanceOf(PetRepository.class));
 	}
+
+	@Test
+	public void testContainerIsShared() throws Exception {
+		assertSame(SimpleDI.getDIContainer(), SimpleDI.getDIContainer());
+	}
+
+	@Test
+	public void testUnregisteredClassIsWiredThroughItsConstructorOnce() throws Exception {
+		SimpleDI simpleDi = new SimpleDIContainer();
+		Clinic clinic = (Clinic) simpleDi.getInstanceOf(Clinic.class);
+		assertSame(clinic, simpleDi.getInstanceOf(Clinic.class));
+		assertSame(simpleDi.getInstanceOf(Schedule.class), clinic.schedule);
+	}
+
+	@Test
+	public void testConcurrentFirstCallersShareOneInstance() throws Exception {
+		SimpleDI simpleDi = new SimpleDIContainer();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(() -> simpleDi.getInstanceOf(Counted.class)));
+			}
+			Object first = futures.get(0).get();
+			for (Future<Object> future : futures) {
+				assertSame(first, future.get());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, Counted.created.get());
+	}
+
+	@Test
+	public void testMissingProviderAndCircularDependencyAreReported() throws Exception {
+		SimpleDI simpleDi = new SimpleDIContainer();
+		assertThrows(IllegalStateException.class, () -> simpleDi.getInstanceOf(Runnable.class));
+		IllegalStateException ex = assertThrows(IllegalStateException.class,
+				() -> simpleDi.getInstanceOf(Chicken.class));
+		assertTrue(ex.getMessage().contains("Circular"), ex.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> simpleDi.provideByInstance(Runnable.class, "not runnable"));
+	}
+
+	@Test
+	public void testScopes() throws Exception {
+		SimpleDI simpleDi = new SimpleDIContainer();
+		simpleDi.provideByConstructor(Appointment.class, Appointment.class, SimpleDI.Scope.PROTOTYPE);
+		Appointment appointment = (Appointment) simpleDi.getInstanceOf(Appointment.class);
+		assertNotSame(appointment, simpleDi.getInstanceOf(Appointment.class));
+		assertSame(appointment.schedule, ((Appointment) simpleDi.getInstanceOf(Appointment.class)).schedule);
+
+		simpleDi.provideByConstructor(Object.class, Schedule.class, SimpleDI.Scope.THREAD);
+		Object mine = simpleDi.getInstanceOf(Object.class);
+		assertSame(mine, simpleDi.getInstanceOf(Object.class));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Object theirs = executor.submit(() -> simpleDi.getInstanceOf(Object.class)).get();
+			assertNotSame(mine, theirs);
+			assertSame(theirs, executor.submit(() -> simpleDi.getInstanceOf(Object.class)).get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> simpleDi.provideByConstructor(Runnable.class, Schedule.class, SimpleDI.Scope.SINGLETON));
+	}
+
+	@Test
+	public void testSingletonFunctionRunsOnceForConcurrentFirstCallers() throws Exception {
+		SimpleDI simpleDi = new SimpleDIContainer();
+		AtomicInteger calls = new AtomicInteger();
+		simpleDi.provideByAConstructorFunction(CharSequence.class, () -> {
+			Thread.sleep(50);
+			return "call " + calls.incrementAndGet();
+		}, SimpleDI.Scope.SINGLETON);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(() -> simpleDi.getInstanceOf(CharSequence.class)));
+			}
+			for (Future<Object> future : futures) {
+				assertEquals("call 1", future.get());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testCycleIsRejectedAtRegistration() {
+		SimpleDIContainer container = new SimpleDIContainer();
+		IllegalStateException ex = assertThrows(IllegalStateException.class,
+				() -> container.provideByConstructor(Chicken.class, Chicken.class, SimpleDI.Scope.PROTOTYPE));
+		assertEquals("Circular dependency: Chicken -> Egg -> Chicken", ex.getMessage());
+	}
+
+	@Test
+	public void testInitializesIndependentSingletonsInParallelWaves() throws Exception {
+		SimpleDIContainer container = new SimpleDIContainer();
+		container.provideByConstructor(Frontend.class, Frontend.class, SimpleDI.Scope.SINGLETON);
+		container.provideByConstructor(Database.class, Database.class, SimpleDI.Scope.SINGLETON);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		SimpleDI.StartupReport report;
+		try {
+			report = container.initializeSingletons(pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+		assertTrue(Database.startedTogether && Search.startedTogether,
+				"Database and Search were not created in parallel");
+		assertEquals(3, report.getWaves());
+		assertEquals(4, report.getInitTimes().size());
+		assertEquals(Arrays.asList(Search.class, Backend.class, Frontend.class), report.getCriticalPath());
+		assertTrue(report.getCriticalPathLength().toMillis() >= 200, report.toString());
+		assertSame(container.getInstanceOf(Backend.class), ((Frontend) container.getInstanceOf(Frontend.class)).backend);
+		assertEquals(0, container.initializeSingletons().getInitTimes().size());
+	}
+
+	public static class Schedule {
+
+	}
+
+	public static class Clinic {
+
+		final Schedule schedule;
+
+		public Clinic(Schedule schedule) {
+			this.schedule = schedule;
+		}
+
+	}
+
+	public static class Appointment {
+
+		final Schedule schedule;
+
+		public Appointment(Schedule schedule) {
+			this.schedule = schedule;
+		}
+
+	}
+
+	public static class Counted {
+
+		static final AtomicInteger created = new AtomicInteger();
+
+		public Counted() throws InterruptedException {
+			created.incrementAndGet();
+			Thread.sleep(50);
+		}
+
+	}
+
+	static final CountDownLatch bothStarted = new CountDownLatch(2);
+
+	public static class Database {
+
+		static boolean startedTogether;
+
+		public Database() throws InterruptedException {
+			bothStarted.countDown();
+			startedTogether = bothStarted.await(5, TimeUnit.SECONDS);
+		}
+
+	}
+
+	public static class Search {
+
+		static boolean startedTogether;
+
+		public Search() throws InterruptedException {
+			bothStarted.countDown();
+			startedTogether = bothStarted.await(5, TimeUnit.SECONDS);
+			Thread.sleep(200);
+		}
+
+	}
+
+	public static class Backend {
+
+		public Backend(Database database, Search search) {
+		}
+
+	}
+
+	public static class Frontend {
+
+		final Backend backend;
+
+		public Frontend(Backend backend) {
+			this.backend = backend;
+		}
+
+	}
+
+	public static class Chicken {
+
+		public Chicken(Egg egg) {
+		}
+
+	}
+
+	public static class Egg {
+
+		public Egg(Chicken chicken) {
+		}
+
+	}
+
 }
@@ -0,0 +1,147 @@
+package org.springframework.samples.petclinic.utility;
+
+import org.junit.jupiter.api.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WiringIndexProcessorTest {
+
+	@Test
+	public void testGeneratedIndexWiresAnnotatedClasses() throws Exception {
+		Path output = Files.createTempDirectory("wiring");
+		assertEquals(Collections.emptyList(), compile(output, "sample.Kennel",
+				"package sample;\n" + "import org.springframework.samples.petclinic.utility.*;\n"
+						+ "public class Kennel {\n"
+						+ "  @Injectable(scope = SimpleDI.Scope.PROTOTYPE) public static class Walk {\n"
+						+ "    public final Dog dog;\n" + "    Walk(Dog dog) { this.dog = dog; }\n" + "  }\n"
+						+ "  @Injectable static class Dog {\n" + "    Dog(java.util.List<String> names) { }\n"
+						+ "  }\n" + "}\n"));
+		String index = new String(Files.readAllBytes(output.resolve("sample/Kennel_WiringIndex.java")),
+				StandardCharsets.UTF_8);
+		assertTrue(index.indexOf("sample.Kennel.Dog.class") < index.indexOf("sample.Kennel.Walk.class"), index);
+		assertEquals(Collections.singletonList("sample.Kennel_WiringIndex"),
+				Files.readAllLines(output.resolve(WiringIndexProcessor.SERVICES)));
+
+		SimpleDIContainer container = new SimpleDIContainer();
+		container.provideByInstance(List.class, Arrays.asList("Rex"));
+		URL[] classpath = { output.toUri().toURL() };
+		try (URLClassLoader loader = new URLClassLoader(classpath, getClass().getClassLoader())) {
+			assertTrue(container.loadWiringIndexes(loader) >= 1);
+			Class<?> walk = loader.loadClass("sample.Kennel$Walk");
+			Class<?> dog = loader.loadClass("sample.Kennel$Dog");
+			Object first = container.getInstanceOf(walk);
+			assertNotSame(first, container.getInstanceOf(walk));
+			assertSame(container.getInstanceOf(dog), walk.getField("dog").get(first));
+		}
+	}
+
+	@Test
+	public void testClassesOnTheClassPathAreIndexedAtCompileTime() throws Exception {
+		List<String> indexes = new ArrayList<>();
+		for (WiringIndex index : ServiceLoader.load(WiringIndex.class, getClass().getClassLoader())) {
+			indexes.add(index.getClass().getName());
+		}
+		assertTrue(indexes.contains(WiringIndexProcessorTest.class.getName() + WiringIndexProcessor.SUFFIX),
+				indexes.toString());
+
+		SimpleDIContainer container = new SimpleDIContainer();
+		container.loadWiringIndexes();
+		Object groomer = container.getInstanceOf(Groomer.class);
+		assertTrue(groomer instanceof Groomer);
+		assertSame(groomer, container.getInstanceOf(Groomer.class));
+	}
+
+	@Test
+	public void testCycleIsACompileError() throws Exception {
+		List<String> errors = compile(Files.createTempDirectory("wiring"), "sample.Farm",
+				"package sample;\n" + "import org.springframework.samples.petclinic.utility.*;\n"
+						+ "public class Farm {\n" + "  @Injectable public static class Chicken {\n"
+						+ "    public Chicken(Egg egg) { }\n" + "  }\n" + "  @Injectable public static class Egg {\n"
+						+ "    public Egg(Chicken chicken) { }\n" + "  }\n" + "}\n");
+		assertEquals(Collections.singletonList("Circular dependency: Chicken -> Egg -> Chicken"), errors);
+	}
+
+	@Test
+	public void testClassesThatCannotBeWiredAreCompileErrors() throws Exception {
+		List<String> errors = compile(Files.createTempDirectory("wiring"), "sample.Barn",
+				"package sample;\n" + "import org.springframework.samples.petclinic.utility.*;\n"
+						+ "public class Barn {\n" + "  @Injectable private static class Hidden { }\n"
+						+ "  @Injectable public class Inner { }\n"
+						+ "  @Injectable public static abstract class Base { }\n"
+						+ "  @Injectable public static class Counter { public Counter(int start) { } }\n"
+						+ "  @Injectable public static class Ambiguous {\n"
+						+ "    public Ambiguous(String a) { }\n" + "    public Ambiguous(Long b) { }\n" + "  }\n"
+						+ "}\n");
+		assertEquals(5, errors.size(), errors.toString());
+	}
+
+	@Test
+	public void testConstructorThrowingCheckedExceptionIsACompileError() throws Exception {
+		List<String> errors = compile(Files.createTempDirectory("wiring"), "sample.Stable",
+				"package sample;\n" + "import org.springframework.samples.petclinic.utility.*;\n"
+						+ "public class Stable {\n"
+						+ "  @Injectable public static class Door { public Door() throws java.io.IOException { } }\n"
+						+ "  @Injectable public static class Gate { public Gate() throws IllegalStateException { } }\n"
+						+ "}\n");
+		assertEquals(Collections.singletonList(
+				"@Injectable constructors cannot throw checked exceptions, such as java.io.IOException"), errors);
+	}
+
+	/**
+	 * Indexed when the tests are compiled, and found on the class path like the classes
+	 * of a jar.
+	 */
+	@Injectable
+	static class Groomer {
+
+	}
+
+	/**
+	 * Compiles the source with the processor into the output directory, along with the
+	 * index it generates, and returns the errors.
+	 */
+	private static List<String> compile(Path output, String className, String source) throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		JavaFileObject file = new SimpleJavaFileObject(
+				URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d",
+				output.toString(), "-s", output.toString());
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+				Collections.singletonList(file));
+		task.setProcessors(Collections.singletonList(new WiringIndexProcessor()));
+		task.call();
+		List<String> errors = new ArrayList<>();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				errors.add(diagnostic.getMessage(null));
+			}
+		}
+		return errors;
+	}
+
+}